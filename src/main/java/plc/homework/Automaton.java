@@ -0,0 +1,573 @@
+package plc.homework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A regular expression compiled into a deterministic finite automaton. Unlike
+ * {@link java.util.regex.Pattern}, which backtracks, matching reads each code
+ * point of the input exactly once, so it takes linear time on any input
+ * (including the nested quantifiers of {@link Regex#INTEGER_LIST}).
+ *
+ * Only the syntax used by the {@link Regex} constants is supported: literals,
+ * escapes, {@code .}, character classes (with ranges and negation), {@code
+ * \d}, {@code \s} and {@code \w}, groups, alternation, the quantifiers {@code
+ * *}, {@code +}, {@code ?} and {@code {n,m}}, and {@code ^}/{@code $} at the
+ * ends of the pattern. Matching has the semantics of {@link
+ * java.util.regex.Matcher#matches()}, requiring the entire input to match.
+ */
+public final class Automaton {
+
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    private final String pattern;
+    private final int[] boundaries;
+    private final int[] ascii = new int[128];
+    private final int classes;
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    private Automaton(String pattern, int[] boundaries, int[] transitions, boolean[] accepting) {
+        this.pattern = pattern;
+        this.boundaries = boundaries;
+        this.classes = boundaries.length;
+        this.transitions = transitions;
+        this.accepting = accepting;
+        for (int c = 0; c < ascii.length; c++) {
+            ascii[c] = findClass(c);
+        }
+    }
+
+    /**
+     * Compiles the given regular expression, throwing an {@link
+     * IllegalArgumentException} if it uses unsupported syntax.
+     */
+    public static Automaton compile(String regex) {
+        Node root = new RegexParser(regex).parse();
+
+        Nfa nfa = new Nfa();
+        int accept = nfa.addState();
+        int start = root.build(nfa, accept);
+
+        TreeSet<Integer> points = new TreeSet<>();
+        points.add(0);
+        for (int[] set : nfa.sets) {
+            if (set != null) {
+                for (int i = 0; i < set.length; i += 2) {
+                    points.add(set[i]);
+                    if (set[i + 1] < MAX_CODE_POINT) {
+                        points.add(set[i + 1] + 1);
+                    }
+                }
+            }
+        }
+        int[] boundaries = points.stream().mapToInt(Integer::intValue).toArray();
+
+        BitSet[] membership = new BitSet[nfa.size()];
+        for (int state = 0; state < nfa.size(); state++) {
+            int[] set = nfa.sets.get(state);
+            if (set != null) {
+                membership[state] = new BitSet(boundaries.length);
+                for (int c = 0; c < boundaries.length; c++) {
+                    if (contains(set, boundaries[c])) {
+                        membership[state].set(c);
+                    }
+                }
+            }
+        }
+
+        HashMap<BitSet, Integer> ids = new HashMap<>();
+        ArrayList<BitSet> states = new ArrayList<>();
+        BitSet initial = nfa.closure(start);
+        ids.put(initial, 0);
+        states.add(initial);
+
+        int[] transitions = new int[16 * boundaries.length];
+        for (int id = 0; id < states.size(); id++) {
+            BitSet current = states.get(id);
+            for (int c = 0; c < boundaries.length; c++) {
+                BitSet next = new BitSet();
+                for (int state = current.nextSetBit(0); state >= 0; state = current.nextSetBit(state + 1)) {
+                    if (membership[state] != null && membership[state].get(c)) {
+                        next.or(nfa.closure(nfa.targets.get(state)));
+                    }
+                }
+                int target = -1;
+                if (!next.isEmpty()) {
+                    Integer existing = ids.get(next);
+                    if (existing == null) {
+                        existing = states.size();
+                        ids.put(next, existing);
+                        states.add(next);
+                    }
+                    target = existing;
+                }
+                if ((id + 1) * boundaries.length > transitions.length) {
+                    transitions = Arrays.copyOf(transitions, transitions.length * 2);
+                }
+                transitions[id * boundaries.length + c] = target;
+            }
+        }
+
+        boolean[] accepting = new boolean[states.size()];
+        for (int id = 0; id < states.size(); id++) {
+            accepting[id] = states.get(id).get(accept);
+        }
+        return new Automaton(regex, boundaries, Arrays.copyOf(transitions, states.size() * boundaries.length), accepting);
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns true if the entire input matches.
+     */
+    public boolean matches(CharSequence input) {
+        return matches(input, 0, input.length());
+    }
+
+    /**
+     * Returns true if the characters of {@code input} from {@code start} to
+     * {@code end} match, without copying them.
+     */
+    public boolean matches(CharSequence input, int start, int end) {
+        int state = 0;
+        int i = start;
+        while (i < end) {
+            int c = input.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < end && Character.isLowSurrogate(input.charAt(i))) {
+                c = Character.toCodePoint((char) c, input.charAt(i++));
+            }
+            state = transitions[state * classes + (c < ascii.length ? ascii[c] : findClass(c))];
+            if (state < 0) {
+                return false;
+            }
+        }
+        return accepting[state];
+    }
+
+    private int findClass(int c) {
+        int index = Arrays.binarySearch(boundaries, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static boolean contains(int[] set, int c) {
+        for (int i = 0; i < set.length; i += 2) {
+            if (set[i] <= c && c <= set[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * A nondeterministic automaton built by Thompson's construction. Each
+     * state either has a single transition on a set of code points (stored as
+     * inclusive {@code [low, high]} pairs) or only epsilon transitions.
+     */
+    private static final class Nfa {
+
+        private final List<int[]> sets = new ArrayList<>();
+        private final List<Integer> targets = new ArrayList<>();
+        private final List<List<Integer>> epsilons = new ArrayList<>();
+
+        private int size() {
+            return sets.size();
+        }
+
+        private int addState() {
+            sets.add(null);
+            targets.add(-1);
+            epsilons.add(new ArrayList<>());
+            return sets.size() - 1;
+        }
+
+        private int addSet(int[] set, int target) {
+            int state = addState();
+            sets.set(state, set);
+            targets.set(state, target);
+            return state;
+        }
+
+        private int addSplit(int... next) {
+            int state = addState();
+            for (int target : next) {
+                epsilons.get(state).add(target);
+            }
+            return state;
+        }
+
+        private BitSet closure(int state) {
+            BitSet closure = new BitSet(size());
+            ArrayList<Integer> stack = new ArrayList<>();
+            stack.add(state);
+            closure.set(state);
+            while (!stack.isEmpty()) {
+                for (int next : epsilons.get(stack.remove(stack.size() - 1))) {
+                    if (!closure.get(next)) {
+                        closure.set(next);
+                        stack.add(next);
+                    }
+                }
+            }
+            return closure;
+        }
+
+    }
+
+    /**
+     * A node of a parsed expression. Nodes are built into the automaton
+     * backwards: {@link #build(Nfa, int)} is given the state following the
+     * node and returns the state starting it, which allows a node to be built
+     * several times for bounded repetition.
+     */
+    private static abstract class Node {
+
+        abstract int build(Nfa nfa, int next);
+
+    }
+
+    private static final class SetNode extends Node {
+
+        private final int[] set;
+
+        private SetNode(int[] set) {
+            this.set = set;
+        }
+
+        @Override
+        int build(Nfa nfa, int next) {
+            return nfa.addSet(set, next);
+        }
+
+    }
+
+    private static final class ConcatNode extends Node {
+
+        private final List<Node> nodes;
+
+        private ConcatNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int build(Nfa nfa, int next) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                next = nodes.get(i).build(nfa, next);
+            }
+            return next;
+        }
+
+    }
+
+    private static final class AltNode extends Node {
+
+        private final List<Node> nodes;
+
+        private AltNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int build(Nfa nfa, int next) {
+            int[] starts = new int[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                starts[i] = nodes.get(i).build(nfa, next);
+            }
+            return nfa.addSplit(starts);
+        }
+
+    }
+
+    private static final class RepeatNode extends Node {
+
+        private final Node node;
+        private final int min;
+        private final int max;
+
+        /**
+         * Repeats the node between min and max times, where a max of -1 is
+         * unbounded.
+         */
+        private RepeatNode(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int build(Nfa nfa, int next) {
+            if (max < 0) {
+                int loop = nfa.addSplit(next);
+                nfa.epsilons.get(loop).add(node.build(nfa, loop));
+                next = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    next = nfa.addSplit(next, node.build(nfa, next));
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                next = node.build(nfa, next);
+            }
+            return next;
+        }
+
+    }
+
+    /**
+     * A recursive descent parser for the supported regex syntax.
+     */
+    private static final class RegexParser {
+
+        private static final int[] DIGIT = {'0', '9'};
+        private static final int[] SPACE = {'\t', '\r', ' ', ' '}; // \t through \r, and space
+        private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        private static final int[] ANY = complement(new int[] {
+                '\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029'});
+
+        private final String regex;
+        private int index = 0;
+
+        private RegexParser(String regex) {
+            this.regex = regex;
+        }
+
+        private Node parse() {
+            if (peek('^')) {
+                index++;
+            }
+            Node node = parseAlternation();
+            if (peek('$') && index == regex.length() - 1) {
+                index++;
+            }
+            if (index < regex.length()) {
+                throw error("Unsupported or unbalanced syntax");
+            }
+            return node;
+        }
+
+        private Node parseAlternation() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(parseConcatenation());
+            while (peek('|')) {
+                index++;
+                nodes.add(parseConcatenation());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new AltNode(nodes);
+        }
+
+        private Node parseConcatenation() {
+            List<Node> nodes = new ArrayList<>();
+            while (index < regex.length() && !peek('|') && !peek(')')
+                    && !(peek('$') && index == regex.length() - 1)) {
+                nodes.add(parseRepetition());
+            }
+            return new ConcatNode(nodes);
+        }
+
+        private Node parseRepetition() {
+            Node node = parseAtom();
+            while (index < regex.length()) {
+                char c = regex.charAt(index);
+                if (c == '*') {
+                    node = new RepeatNode(node, 0, -1);
+                } else if (c == '+') {
+                    node = new RepeatNode(node, 1, -1);
+                } else if (c == '?') {
+                    node = new RepeatNode(node, 0, 1);
+                } else if (c == '{') {
+                    index++;
+                    int min = parseNumber();
+                    int max = min;
+                    if (peek(',')) {
+                        index++;
+                        max = peek('}') ? -1 : parseNumber();
+                    }
+                    if (!peek('}') || (max >= 0 && max < min)) {
+                        throw error("Invalid repetition");
+                    }
+                    node = new RepeatNode(node, min, max);
+                } else {
+                    break;
+                }
+                index++;
+                if (peek('?') || peek('+')) {
+                    throw error("Lazy and possessive quantifiers are not supported");
+                }
+            }
+            return node;
+        }
+
+        private Node parseAtom() {
+            char c = regex.charAt(index++);
+            switch (c) {
+                case '(':
+                    if (peek('?')) {
+                        throw error("Special groups are not supported");
+                    }
+                    Node node = parseAlternation();
+                    if (!peek(')')) {
+                        throw error("Unclosed group");
+                    }
+                    index++;
+                    return node;
+                case '[':
+                    return new SetNode(parseClass());
+                case '.':
+                    return new SetNode(ANY);
+                case '\\':
+                    return new SetNode(parseEscape());
+                case '*': case '+': case '?': case '{': case '^': case '$':
+                    throw error("Unexpected '" + c + "'");
+                default:
+                    return new SetNode(new int[] {c, c});
+            }
+        }
+
+        private int[] parseClass() {
+            boolean negated = peek('^');
+            if (negated) {
+                index++;
+            }
+            List<int[]> parts = new ArrayList<>();
+            boolean first = true;
+            while (index < regex.length() && (first || !peek(']'))) {
+                first = false;
+                if (peek('[') || regex.startsWith("&&", index)) {
+                    throw error("Nested classes and intersections are not supported");
+                }
+                int low;
+                if (peek('\\')) {
+                    index++;
+                    int[] escape = parseEscape();
+                    if (escape.length > 2 || escape[0] != escape[1]) {
+                        parts.add(escape);
+                        continue;
+                    }
+                    low = escape[0];
+                } else {
+                    low = regex.charAt(index++);
+                }
+                int high = low;
+                if (peek('-') && index + 1 < regex.length() && regex.charAt(index + 1) != ']') {
+                    index++;
+                    if (peek('\\')) {
+                        index++;
+                        int[] escape = parseEscape();
+                        if (escape.length > 2 || escape[0] != escape[1]) {
+                            throw error("Invalid range");
+                        }
+                        high = escape[0];
+                    } else {
+                        high = regex.charAt(index++);
+                    }
+                    if (high < low) {
+                        throw error("Invalid range");
+                    }
+                }
+                parts.add(new int[] {low, high});
+            }
+            if (!peek(']')) {
+                throw error("Unclosed character class");
+            }
+            index++;
+            int[] set = union(parts);
+            return negated ? complement(set) : set;
+        }
+
+        private int[] parseEscape() {
+            if (index >= regex.length()) {
+                throw error("Trailing backslash");
+            }
+            char c = regex.charAt(index++);
+            switch (c) {
+                case 'd': return DIGIT;
+                case 's': return SPACE;
+                case 'w': return WORD;
+                case 't': return new int[] {'\t', '\t'};
+                case 'n': return new int[] {'\n', '\n'};
+                case 'r': return new int[] {'\r', '\r'};
+                case 'f': return new int[] {'\f', '\f'};
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        throw error("Unsupported escape \\" + c);
+                    }
+                    return new int[] {c, c};
+            }
+        }
+
+        private int parseNumber() {
+            int start = index;
+            while (index < regex.length() && Character.isDigit(regex.charAt(index))) {
+                index++;
+            }
+            if (start == index) {
+                throw error("Expected a number");
+            }
+            return Integer.parseInt(regex.substring(start, index));
+        }
+
+        private boolean peek(char c) {
+            return index < regex.length() && regex.charAt(index) == c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at index " + index + " of " + regex);
+        }
+
+        /**
+         * Merges sets of inclusive ranges into a sorted, non-overlapping set.
+         */
+        private static int[] union(List<int[]> sets) {
+            List<int[]> ranges = new ArrayList<>();
+            for (int[] set : sets) {
+                for (int i = 0; i < set.length; i += 2) {
+                    ranges.add(new int[] {set[i], set[i + 1]});
+                }
+            }
+            ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+            List<int[]> merged = new ArrayList<>();
+            for (int[] range : ranges) {
+                int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && range[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], range[1]);
+                } else {
+                    merged.add(range);
+                }
+            }
+            int[] result = new int[merged.size() * 2];
+            for (int i = 0; i < merged.size(); i++) {
+                result[2 * i] = merged.get(i)[0];
+                result[2 * i + 1] = merged.get(i)[1];
+            }
+            return result;
+        }
+
+        private static int[] complement(int[] set) {
+            List<int[]> ranges = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < set.length; i += 2) {
+                if (set[i] > next) {
+                    ranges.add(new int[] {next, set[i] - 1});
+                }
+                next = set[i + 1] + 1;
+            }
+            if (next <= MAX_CODE_POINT) {
+                ranges.add(new int[] {next, MAX_CODE_POINT});
+            }
+            return union(ranges);
+        }
+
+    }
+
+}
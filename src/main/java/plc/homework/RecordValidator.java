@@ -0,0 +1,260 @@
+package plc.homework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Validates files of newline-delimited records against a {@link Pattern},
+ * such as the {@link Regex} constants, or an {@link Automaton}. Each line
+ * (without its {@code "\n"} or {@code "\r\n"} terminator) is one record, which
+ * is valid if the entire line matches.
+ *
+ * The file is memory mapped in line-aligned chunks which are validated in
+ * parallel. Records are matched in place: ASCII lines are read directly from
+ * the mapped bytes, and other lines are decoded as UTF-8 into a reused
+ * buffer, so no {@link String} is created per line. Each thread reuses a
+ * single {@link Matcher}.
+ */
+public final class RecordValidator {
+
+    /**
+     * The minimum size of a chunk, below which splitting is not worthwhile.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+
+    /**
+     * The maximum size of a chunk, which must fit in a single mapping.
+     */
+    private static final int MAX_CHUNK = 1 << 30;
+
+    private final Automaton automaton;
+    private final ThreadLocal<Matcher> matchers;
+
+    public RecordValidator(Pattern pattern) {
+        this.automaton = null;
+        this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+    }
+
+    public RecordValidator(Automaton automaton) {
+        this.automaton = automaton;
+        this.matchers = null;
+    }
+
+    /**
+     * Validates the given file on the common fork/join pool. See {@link
+     * #validate(Path, ForkJoinPool)}.
+     */
+    public Result validate(Path path) throws IOException {
+        return validate(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Validates the records of the given file, splitting it into chunks after
+     * a newline which are validated concurrently on the given pool.
+     */
+    public Result validate(Path path, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (pool.getParallelism() * 4L)));
+
+            ArrayList<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            long from = 0;
+            while (from < size) {
+                long to = nextLine(channel, Math.min(from + chunkSize, size));
+                if (to - from > Integer.MAX_VALUE) {
+                    throw new IOException("Line starting after offset " + from + " is too long to map.");
+                }
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                long offset = from;
+                tasks.add(pool.submit(() -> validate(chunk, offset)));
+                from = to;
+            }
+
+            Result result = new Result();
+            for (ForkJoinTask<Result> task : tasks) {
+                result.add(task.join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the offset following the first newline at or after {@code
+     * position - 1}, or the size of the file if there is none.
+     */
+    private static long nextLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long offset = position - 1;
+        while (offset < channel.size()) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += Math.max(read, 0);
+        }
+        return channel.size();
+    }
+
+    private Result validate(ByteBuffer bytes, long offset) {
+        Result result = new Result();
+        AsciiSequence ascii = new AsciiSequence(bytes);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer decoded = CharBuffer.allocate(256);
+
+        int start = 0;
+        boolean isAscii = true;
+        for (int i = 0; i <= bytes.limit(); i++) {
+            byte b = i < bytes.limit() ? bytes.get(i) : (byte) '\n';
+            if (b < 0) {
+                isAscii = false;
+            } else if (b == '\n') {
+                if (i == bytes.limit() && i == start) {
+                    break;
+                }
+                int end = i > start && bytes.get(i - 1) == '\r' ? i - 1 : i;
+                boolean valid;
+                if (isAscii) {
+                    valid = matches(ascii, start, end);
+                } else {
+                    if (decoded.capacity() < end - start) {
+                        decoded = CharBuffer.allocate(Math.max(end - start, decoded.capacity() * 2));
+                    }
+                    ByteBuffer line = bytes.duplicate();
+                    line.limit(end);
+                    line.position(start);
+                    decoded.clear();
+                    decoder.reset().decode(line, decoded, true);
+                    decoder.flush(decoded);
+                    decoded.flip();
+                    valid = matches(decoded, 0, decoded.limit());
+                }
+                result.record(valid, offset + start);
+                start = i + 1;
+                isAscii = true;
+            }
+        }
+        return result;
+    }
+
+    private boolean matches(CharSequence input, int start, int end) {
+        if (automaton != null) {
+            return automaton.matches(input, start, end);
+        }
+        Matcher matcher = matchers.get();
+        return matcher.reset(input).region(start, end).matches();
+    }
+
+    /**
+     * The number of records validated and the offsets of rejected records.
+     */
+    public static final class Result {
+
+        private long records = 0;
+        private long[] rejected = new long[16];
+        private int rejectedCount = 0;
+
+        private void record(boolean valid, long offset) {
+            records++;
+            if (!valid) {
+                if (rejectedCount == rejected.length) {
+                    rejected = Arrays.copyOf(rejected, rejectedCount * 2);
+                }
+                rejected[rejectedCount++] = offset;
+            }
+        }
+
+        private void add(Result other) {
+            records += other.records;
+            if (rejectedCount + other.rejectedCount > rejected.length) {
+                rejected = Arrays.copyOf(rejected, Math.max(rejected.length * 2, rejectedCount + other.rejectedCount));
+            }
+            System.arraycopy(other.rejected, 0, rejected, rejectedCount, other.rejectedCount);
+            rejectedCount += other.rejectedCount;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getAccepted() {
+            return records - rejectedCount;
+        }
+
+        public long getRejected() {
+            return rejectedCount;
+        }
+
+        /**
+         * Returns the byte offsets in the file at which each rejected record
+         * starts, in ascending order.
+         */
+        public long[] getRejectedOffsets() {
+            return Arrays.copyOf(rejected, rejectedCount);
+        }
+
+        @Override
+        public String toString() {
+            return "Result{records=" + records + ", rejected=" + rejectedCount + "}";
+        }
+
+    }
+
+    /**
+     * A view of ASCII bytes as characters, which avoids decoding lines that
+     * are known to be ASCII.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final ByteBuffer bytes;
+
+        private AsciiSequence(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            ByteBuffer slice = bytes.duplicate();
+            slice.position(start);
+            slice.limit(end);
+            return new AsciiSequence(slice.slice());
+        }
+
+        @Override
+        public String toString() {
+            byte[] copy = new byte[bytes.limit()];
+            bytes.duplicate().get(copy);
+            return new String(copy, StandardCharsets.US_ASCII);
+        }
+
+    }
+
+}
@@ -15,4 +15,17 @@ public class Regex {
             NUMBER = Pattern.compile("^(\\d+|[+-]\\d+)(\\.\\d+)?"), //TODO
             STRING = Pattern.compile("^\"([a-zA-Z0-9!@#\\$%\\^&\\*\\(\\)_\\+-=\\[\\]\\{\\};:|,\\.<>\\/\\? ]*|(\\\\[bnrt\\\\\'\"]{1}))*\"$"); //TODO
 
+    /**
+     * The same patterns compiled into {@link Automaton}s, which match in
+     * linear time regardless of input (for example, {@link #INTEGER_LIST}
+     * backtracks exponentially on a long run of digits with no closing
+     * bracket).
+     */
+    public static final Automaton
+            EMAIL_AUTOMATON = Automaton.compile(EMAIL.pattern()),
+            EVEN_STRINGS_AUTOMATON = Automaton.compile(EVEN_STRINGS.pattern()),
+            INTEGER_LIST_AUTOMATON = Automaton.compile(INTEGER_LIST.pattern()),
+            NUMBER_AUTOMATON = Automaton.compile(NUMBER.pattern()),
+            STRING_AUTOMATON = Automaton.compile(STRING.pattern());
+
 }
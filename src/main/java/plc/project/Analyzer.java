@@ -15,6 +15,7 @@ import java.util.stream.Collectors;
 public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
+    private final Scope root;
     private Ast.Method method;
     private Environment.Type currentMethodType;
 
@@ -22,6 +23,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Analyzer(Scope parent) {
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+        root = scope;
     }
 
     public Scope getScope() {
@@ -111,6 +113,10 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }
 
         ast.setVariable(scope.defineVariable(ast.getName(), ast.getName(), type, Environment.NIL));
+        // As in resolve, variables of the root scope are left to be defined by name.
+        if(scope != root) {
+            ast.setSlot(scope.getSlot(ast.getName()));
+        }
 
         return null;
     }
@@ -267,10 +273,29 @@ public final class Analyzer implements Ast.Visitor<Void> {
             ast.setVariable(ast.getReceiver().get().getType().getField(ast.getName()));
         } else {
             ast.setVariable(scope.lookupVariable(ast.getName()));
+            resolve(ast);
         }
         return null;
     }
 
+    /**
+     * Sets the address of an access to a variable defined in a method, which
+     * the {@link Interpreter} then reads by slot instead of by name. Fields
+     * and variables of the parent scope are left to be looked up by name,
+     * since the interpreter's global scope may be defined differently.
+     */
+    private void resolve(Ast.Expr.Access ast) {
+        int depth = 0;
+        for(Scope s = scope; s != root; s = s.getParent()) {
+            int slot = s.getSlot(ast.getName());
+            if(slot != -1) {
+                ast.setAddress(depth, slot);
+                return;
+            }
+            depth++;
+        }
+    }
+
     @Override
     public Void visit(Ast.Expr.Function ast) {
         Environment.Function func = null;
@@ -11,6 +11,38 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /**
+     * Calls the {@link Visitor} method for the type of this node, so visiting
+     * any node is a single virtual call.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
+    private int start = -1;
+    private int end = -1;
+
+    /**
+     * Returns the offset in the source of the first character of this node,
+     * or {@code -1} if it was not created by the {@link Parser} or the parser
+     * did not record spans (see {@link Parser#setSpans(boolean)}). Spans are
+     * not compared by {@link #equals(Object)}.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the offset in the source after the last character of this
+     * node, or {@code -1} if it has no span (see {@link #getStart()}).
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    void setSpan(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
@@ -29,6 +61,11 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Source &&
@@ -86,6 +123,11 @@ public abstract class Ast {
             this.variable = variable;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Field &&
@@ -162,6 +204,11 @@ public abstract class Ast {
             this.function = function;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Method &&
@@ -201,6 +248,11 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Expression &&
@@ -222,6 +274,7 @@ public abstract class Ast {
             private final Optional<String> typeName;
             private final Optional<Expr> value;
             private Environment.Variable variable;
+            private int slot = -1;
 
             public Declaration(String name, Optional<Expr> value) {
                 this(name, Optional.empty(), value);
@@ -256,6 +309,24 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the slot of the declared variable in its scope (see
+             * {@link Scope#lookupVariable(int, int)}), or {@code -1} if it
+             * was not set by the {@link Analyzer}.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setSlot(int slot) {
+                this.slot = slot;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Declaration &&
@@ -295,6 +366,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Assignment &&
@@ -337,6 +413,11 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -380,6 +461,11 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof For &&
@@ -417,6 +503,11 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -446,6 +537,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
@@ -461,8 +557,66 @@ public abstract class Ast {
 
         }
 
+        /**
+         * A statement which failed to parse, produced in place of the
+         * statement by a recovering parser (see {@link
+         * Parser#setRecovering(boolean)}). Error nodes cannot be analyzed or
+         * evaluated.
+         */
+        public static final class Error extends Stmt {
+
+            private final String message;
+            private final int index;
+
+            public Error(String message, int index) {
+                this.message = message;
+                this.index = index;
+            }
+
+            public String getMessage() {
+                return message;
+            }
+
+            public int getIndex() {
+                return index;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof Error &&
+                        message.equals(((Error) obj).message) &&
+                        index == ((Error) obj).index;
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * message.hashCode() + index;
+            }
+
+            @Override
+            public String toString() {
+                return "Ast.Stmt.Error{" +
+                        "message='" + message + '\'' +
+                        ", index=" + index +
+                        '}';
+            }
+
+        }
+
     }
 
+    /**
+     * Expressions hash their structure, excluding the types, variables and
+     * functions set by the {@link Analyzer}, so equal expressions have equal
+     * hashes. The hash is computed from the (already computed) hashes of the
+     * children when an expression is created, so hashing does not traverse
+     * the tree.
+     */
     public static abstract class Expr extends Ast {
 
         public abstract Environment.Type getType();
@@ -471,9 +625,11 @@ public abstract class Ast {
 
             private final Object literal;
             private Environment.Type type = null;
+            private final int hash;
 
             public Literal(Object literal) {
                 this.literal = literal;
+                this.hash = Objects.hashCode(literal);
             }
 
             public Object getLiteral() {
@@ -492,6 +648,11 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Literal &&
@@ -499,6 +660,11 @@ public abstract class Ast {
                         Objects.equals(type, ((Literal) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expr.Literal{" +
@@ -513,9 +679,11 @@ public abstract class Ast {
 
             private final Expr expression;
             private Environment.Type type = null;
+            private final int hash;
 
             public Group(Expr expression) {
                 this.expression = expression;
+                this.hash = 31 + expression.hashCode();
             }
 
             public Expr getExpression() {
@@ -533,6 +701,11 @@ public abstract class Ast {
             public void setType(Environment.Type type) {
                 this.type = type;
             }
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Group &&
@@ -540,6 +713,11 @@ public abstract class Ast {
                         Objects.equals(type, ((Group) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expr.Group{" +
@@ -556,11 +734,13 @@ public abstract class Ast {
             private final Expr left;
             private final Expr right;
             private Environment.Type type = null;
+            private final int hash;
 
             public Binary(String operator, Expr left, Expr right) {
                 this.operator = operator;
                 this.left = left;
                 this.right = right;
+                this.hash = (31 * operator.hashCode() + left.hashCode()) * 31 + right.hashCode();
             }
 
             public String getOperator() {
@@ -587,6 +767,11 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -596,6 +781,11 @@ public abstract class Ast {
                         Objects.equals(type, ((Binary) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expr.Binary{" +
@@ -613,10 +803,14 @@ public abstract class Ast {
             private final Optional<Expr> receiver;
             private final String name;
             private Environment.Variable variable = null;
+            private int depth = -1;
+            private int slot = -1;
+            private final int hash;
 
             public Access(Optional<Expr> receiver, String name) {
                 this.receiver = receiver;
                 this.name = name;
+                this.hash = 31 * receiver.hashCode() + name.hashCode();
             }
 
             public Optional<Expr> getReceiver() {
@@ -638,11 +832,38 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the number of scopes between the scope of this access
+             * and the scope defining its variable, or {@code -1} if the
+             * {@link Analyzer} left the variable to be looked up by name.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            /**
+             * Returns the slot of the variable in the scope defining it, or
+             * {@code -1} if it is looked up by name.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setAddress(int depth, int slot) {
+                this.depth = depth;
+                this.slot = slot;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getVariable().getType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Access &&
@@ -651,6 +872,11 @@ public abstract class Ast {
                         Objects.equals(variable, ((Access) obj).variable);
             }
 
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expr.Access{" +
@@ -668,11 +894,13 @@ public abstract class Ast {
             private final String name;
             private final List<Expr> arguments;
             private Environment.Function function = null;
+            private final int hash;
 
             public Function(Optional<Expr> receiver, String name, List<Expr> arguments) {
                 this.receiver = receiver;
                 this.name = name;
                 this.arguments = arguments;
+                this.hash = (31 * receiver.hashCode() + name.hashCode()) * 31 + arguments.hashCode();
             }
 
             public Optional<Expr> getReceiver() {
@@ -703,6 +931,11 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Function &&
@@ -712,6 +945,11 @@ public abstract class Ast {
                         Objects.equals(function, ((Function) obj).function);
             }
 
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expr.Function{" +
@@ -728,40 +966,12 @@ public abstract class Ast {
 
     public interface Visitor<T> {
 
+        /**
+         * Visits a node of any type, dispatching through {@link
+         * Ast#accept(Visitor)}.
+         */
         default T visit(Ast ast) {
-            if (ast instanceof Source) {
-                return visit((Source) ast);
-            } else if (ast instanceof Field) {
-                return visit((Field) ast);
-            } else if (ast instanceof Method) {
-                return visit((Method) ast);
-            } else if (ast instanceof Stmt.Expression) {
-                return visit((Stmt.Expression) ast);
-            } else if (ast instanceof Stmt.Declaration) {
-                return visit((Stmt.Declaration) ast);
-            } else if (ast instanceof Stmt.Assignment) {
-                return visit((Stmt.Assignment) ast);
-            } else if (ast instanceof Stmt.If) {
-                return visit((Stmt.If) ast);
-            } else if (ast instanceof Stmt.For) {
-                return visit((Stmt.For) ast);
-            } else if (ast instanceof Stmt.While) {
-                return visit((Stmt.While) ast);
-            } else if (ast instanceof Stmt.Return) {
-                return visit((Stmt.Return) ast);
-            } else if (ast instanceof Expr.Literal) {
-                return visit((Expr.Literal) ast);
-            } else if (ast instanceof Expr.Group) {
-                return visit((Expr.Group) ast);
-            } else if (ast instanceof Expr.Binary) {
-                return visit((Expr.Binary) ast);
-            } else if (ast instanceof Expr.Access) {
-                return visit((Expr.Access) ast);
-            } else if (ast instanceof Expr.Function) {
-                return visit((Expr.Function) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Source ast);
@@ -784,6 +994,15 @@ public abstract class Ast {
 
         T visit(Stmt.Return ast);
 
+        /**
+         * Visits a statement which failed to parse. Passes other than the
+         * {@link Parser} cannot process these, so by default this reports the
+         * span of the statement and the parse error.
+         */
+        default T visit(Stmt.Error ast) {
+            throw new RuntimeException("The statement at " + ast.getStart() + "-" + ast.getEnd() + " failed to parse: " + ast.getMessage());
+        }
+
         T visit(Expr.Literal ast);
 
         T visit(Expr.Group ast);
@@ -0,0 +1,361 @@
+package plc.project;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A directory of parsed sources in a binary format, keyed by the SHA-256 hash
+ * of the source, so an unchanged source is loaded rather than lexed and parsed
+ * again. Entries with a different format version, or which cannot be read,
+ * are treated as missing and replaced.
+ *
+ * The format is a header ({@link #MAGIC}, {@link #VERSION} and a flags byte)
+ * followed by the arrays of the tree's {@link CompactAst}, so the layout of
+ * the nodes is defined in one place: its table of constants, the number of
+ * nodes, the {@link CompactAst.Kind} byte of each node, then the length of
+ * each node's payload, its source span (the start plus one, or {@code 0} if
+ * it has none, and the length) and its payload (each value plus one, since an
+ * absent value is {@code -1}), written as variable length integers. If the
+ * tree was written with types, a table of type names follows, then for each
+ * node the index of its type name plus one, or {@code 0} if it has none.
+ * The variables and functions of accesses and functions refer to runtime
+ * scopes, so they are not written and must be resolved by the {@link Analyzer}.
+ */
+public final class AstCache {
+
+    public static final int MAGIC = 0x504C4341;
+
+    /**
+     * The version of the format, which must be incremented whenever it changes.
+     */
+    public static final int VERSION = 3;
+
+    private static final int TYPES = 1;
+
+    private static final byte NULL = 0, STRING = 1, INTEGER = 2, DECIMAL = 3, CHARACTER = 4, BOOLEAN = 5;
+
+    private final Path directory;
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached tree of the given source, or lexes, parses and caches
+     * it if there is none.
+     */
+    public Ast.Source load(String source) throws IOException {
+        Path path = getPath(source);
+        try {
+            return read(new ByteArrayInputStream(Files.readAllBytes(path)));
+        } catch (NoSuchFileException | CacheException ignored) {
+            Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+            store(source, ast, false);
+            return ast;
+        }
+    }
+
+    /**
+     * Caches the tree of the given source, such as a tree with the types set
+     * by the {@link Analyzer}, replacing any existing entry.
+     */
+    public void store(String source, Ast.Source ast, boolean types) throws IOException {
+        Path path = getPath(source);
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                write(ast, output, types);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the path of the cache entry for the given source.
+     */
+    public Path getPath(String source) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(2 * hash.length + 4);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(".ast").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes a tree in the cache format, including the types of literal,
+     * group and binary expressions if {@code types} is true.
+     */
+    public static void write(Ast.Source ast, OutputStream output, boolean types) throws IOException {
+        List<Ast> nodes = types ? new ArrayList<>() : null;
+        CompactAst compact = CompactAst.of(ast, nodes);
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeByte(types ? TYPES : 0);
+        data.writeInt(compact.constants.length);
+        for (Object constant : compact.constants) {
+            writeConstant(data, constant);
+        }
+        int size = compact.size();
+        data.writeInt(size);
+        data.write(compact.kinds);
+        for (int node = 0; node < size; node++) {
+            int end = node + 1 < size ? compact.offsets[node + 1] : compact.data.length;
+            writeVarint(data, end - compact.offsets[node]);
+            writeVarint(data, compact.starts[node] + 1);
+            if (compact.starts[node] != -1) {
+                writeVarint(data, compact.ends[node] - compact.starts[node]);
+            }
+            for (int i = compact.offsets[node]; i < end; i++) {
+                writeVarint(data, compact.data[i] + 1);
+            }
+        }
+        if (types) {
+            writeTypes(data, nodes);
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes the type names of the literal, group and binary expressions of
+     * the given nodes (which are indexed by handle).
+     */
+    private static void writeTypes(DataOutputStream data, List<Ast> nodes) throws IOException {
+        HashMap<String, Integer> indices = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int[] types = new int[nodes.size()];
+        for (int node = 0; node < types.length; node++) {
+            Ast ast = nodes.get(node);
+            if (ast instanceof Ast.Expr.Literal || ast instanceof Ast.Expr.Group || ast instanceof Ast.Expr.Binary) {
+                try {
+                    String name = ((Ast.Expr) ast).getType().getName();
+                    types[node] = indices.computeIfAbsent(name, n -> {
+                        names.add(n);
+                        return names.size() - 1;
+                    }) + 1;
+                } catch (IllegalStateException ignored) {
+                    // the expression was not analyzed
+                }
+            }
+        }
+        data.writeInt(names.size());
+        for (String name : names) {
+            writeBytes(data, name.getBytes(StandardCharsets.UTF_8));
+        }
+        for (int type : types) {
+            writeVarint(data, type);
+        }
+    }
+
+    /**
+     * Reads a tree written by {@link #write(Ast.Source, OutputStream, boolean)},
+     * throwing a {@link CacheException} if it is not in the current format.
+     */
+    public static Ast.Source read(InputStream input) throws IOException {
+        // Read into memory first: decoding a buffer is much faster than
+        // reading the many small values one byte at a time from a stream.
+        ByteBuffer data = ByteBuffer.wrap(input.readAllBytes());
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new CacheException("Not a cached source.");
+            }
+            int version = data.getInt();
+            if (version != VERSION) {
+                throw new CacheException("Unsupported version " + version + ".");
+            }
+            boolean types = (data.get() & TYPES) != 0;
+            Object[] constants = new Object[checkCount(data, data.getInt())];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = readConstant(data);
+            }
+            int size = checkCount(data, data.getInt());
+            byte[] kinds = new byte[size];
+            data.get(kinds);
+            int[] offsets = new int[size];
+            int[] starts = new int[size];
+            int[] ends = new int[size];
+            int[] payload = new int[Math.max(16, size)];
+            int length = 0;
+            for (int node = 0; node < size; node++) {
+                int count = checkCount(data, readVarint(data));
+                offsets[node] = length;
+                starts[node] = readVarint(data) - 1;
+                ends[node] = starts[node] == -1 ? -1 : starts[node] + readVarint(data);
+                if (length + count > payload.length) {
+                    payload = Arrays.copyOf(payload, Math.max(2 * payload.length, length + count));
+                }
+                for (int i = 0; i < count; i++) {
+                    payload[length++] = readVarint(data) - 1;
+                }
+            }
+            CompactAst compact = new CompactAst(kinds, offsets, starts, ends, Arrays.copyOf(payload, length), constants);
+            Ast[] nodes = types ? new Ast[size] : null;
+            Ast ast = compact.toAst(compact.getRoot(), nodes);
+            if (types) {
+                readTypes(data, nodes);
+            }
+            if (!(ast instanceof Ast.Source) || data.hasRemaining()) {
+                throw new CacheException("Malformed cached source.");
+            }
+            return (Ast.Source) ast;
+        } catch (RuntimeException e) {
+            throw new CacheException("Malformed cached source: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the types written by {@link #writeTypes(DataOutputStream, List)}
+     * into the given nodes.
+     */
+    private static void readTypes(ByteBuffer data, Ast[] nodes) throws CacheException {
+        String[] names = new String[checkCount(data, data.getInt())];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = new String(readBytes(data), StandardCharsets.UTF_8);
+        }
+        for (Ast node : nodes) {
+            int type = readVarint(data);
+            if (type == 0) {
+                continue;
+            }
+            Environment.Type value = Environment.getType(names[type - 1]);
+            if (node instanceof Ast.Expr.Literal) {
+                ((Ast.Expr.Literal) node).setType(value);
+            } else if (node instanceof Ast.Expr.Group) {
+                ((Ast.Expr.Group) node).setType(value);
+            } else if (node instanceof Ast.Expr.Binary) {
+                ((Ast.Expr.Binary) node).setType(value);
+            } else {
+                throw new CacheException("Malformed cached source: a type of a " + node.getClass().getSimpleName() + ".");
+            }
+        }
+    }
+
+    private static void writeConstant(DataOutputStream data, Object constant) throws IOException {
+        if (constant == null) {
+            data.writeByte(NULL);
+        } else if (constant instanceof String) {
+            data.writeByte(STRING);
+            writeBytes(data, ((String) constant).getBytes(StandardCharsets.UTF_8));
+        } else if (constant instanceof BigInteger) {
+            data.writeByte(INTEGER);
+            writeBytes(data, ((BigInteger) constant).toByteArray());
+        } else if (constant instanceof BigDecimal) {
+            data.writeByte(DECIMAL);
+            data.writeInt(((BigDecimal) constant).scale());
+            writeBytes(data, ((BigDecimal) constant).unscaledValue().toByteArray());
+        } else if (constant instanceof Character) {
+            data.writeByte(CHARACTER);
+            data.writeChar((Character) constant);
+        } else if (constant instanceof Boolean) {
+            data.writeByte(BOOLEAN);
+            data.writeBoolean((Boolean) constant);
+        } else {
+            throw new IllegalArgumentException("Unsupported literal " + constant + ".");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static Object readConstant(ByteBuffer data) throws CacheException {
+        byte tag = data.get();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return new String(readBytes(data), StandardCharsets.UTF_8);
+            case INTEGER: return new BigInteger(readBytes(data));
+            case DECIMAL: {
+                int scale = data.getInt();
+                return new BigDecimal(new BigInteger(readBytes(data)), scale);
+            }
+            case CHARACTER: return data.getChar();
+            case BOOLEAN: return data.get() != 0;
+            default: throw new CacheException("Unknown constant tag " + tag + ".");
+        }
+    }
+
+    /**
+     * Writes a non-negative value in seven bit groups, least significant
+     * first, with the high bit set on all but the last.
+     */
+    private static void writeVarint(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    /**
+     * Reads a value written by {@link #writeVarint(DataOutputStream, int)}.
+     */
+    private static int readVarint(ByteBuffer data) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Checks a count of items read from the data, each of which takes at
+     * least one of the remaining bytes, so that a corrupted count is rejected
+     * before anything is allocated for it.
+     */
+    private static int checkCount(ByteBuffer data, int count) throws CacheException {
+        if (count < 0 || count > data.remaining()) {
+            throw new CacheException("Malformed cached source: a count of " + count + " with " + data.remaining() + " bytes left.");
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(ByteBuffer data) throws CacheException {
+        byte[] bytes = new byte[checkCount(data, data.getInt())];
+        data.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Thrown when a cached source is not in the current format.
+     */
+    public static final class CacheException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public CacheException(String message) {
+            super(message);
+        }
+
+    }
+
+}
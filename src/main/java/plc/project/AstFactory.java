@@ -0,0 +1,115 @@
+package plc.project;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates expressions for the {@link Parser} (see {@link
+ * Parser#setAstFactory(AstFactory)}), sharing a single instance of each
+ * distinct expression whose analysis does not depend on where it appears.
+ * These are literals, and groups and binary expressions of shared
+ * expressions, since the types the {@link Analyzer} sets on them depend only
+ * on their values and operators. Accesses and functions are bound to
+ * variables and functions in scope, so the parser always creates them anew.
+ *
+ * Since the children of a shared expression are shared, two expressions are
+ * matched by comparing their values or operators with {@code equals} and
+ * their children by identity, so interning an expression is constant time.
+ * Later passes can memoize results for shared expressions by identity (see
+ * {@link #isShared(Ast.Expr)}). A shared expression has no single source
+ * span, so the parser only shares expressions when it does not record spans
+ * (see {@link Parser#setSpans(boolean)}).
+ *
+ * Factories are thread safe, so the parsers of a single compilation can share
+ * one while parsing concurrently.
+ */
+public final class AstFactory {
+
+    private static final int LITERAL = 0, GROUP = 1, BINARY = 2;
+
+    private final ConcurrentHashMap<Key, Ast.Expr> shared = new ConcurrentHashMap<>();
+
+    public Ast.Expr.Literal literal(Object literal) {
+        return (Ast.Expr.Literal) shared.computeIfAbsent(new Key(LITERAL, literal, null, null),
+                key -> new Ast.Expr.Literal(literal));
+    }
+
+    public Ast.Expr.Group group(Ast.Expr expression) {
+        if (!isShared(expression)) {
+            return new Ast.Expr.Group(expression);
+        }
+        return (Ast.Expr.Group) shared.computeIfAbsent(new Key(GROUP, null, expression, null),
+                key -> new Ast.Expr.Group(expression));
+    }
+
+    public Ast.Expr.Binary binary(String operator, Ast.Expr left, Ast.Expr right) {
+        if (!isShared(left) || !isShared(right)) {
+            return new Ast.Expr.Binary(operator, left, right);
+        }
+        return (Ast.Expr.Binary) shared.computeIfAbsent(new Key(BINARY, operator, left, right),
+                key -> new Ast.Expr.Binary(operator, left, right));
+    }
+
+    /**
+     * Returns {@code true} if the given expression is the shared instance of
+     * its structure created by this factory.
+     */
+    public boolean isShared(Ast.Expr expr) {
+        Key key;
+        if (expr instanceof Ast.Expr.Literal) {
+            key = new Key(LITERAL, ((Ast.Expr.Literal) expr).getLiteral(), null, null);
+        } else if (expr instanceof Ast.Expr.Group) {
+            key = new Key(GROUP, null, ((Ast.Expr.Group) expr).getExpression(), null);
+        } else if (expr instanceof Ast.Expr.Binary) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) expr;
+            key = new Key(BINARY, binary.getOperator(), binary.getLeft(), binary.getRight());
+        } else {
+            return false;
+        }
+        return shared.get(key) == expr;
+    }
+
+    /**
+     * Returns the number of shared expressions.
+     */
+    public int size() {
+        return shared.size();
+    }
+
+    /**
+     * The structure of a shared expression, with its children compared by
+     * identity.
+     */
+    private static final class Key {
+
+        private final int kind;
+        private final Object value;
+        private final Ast.Expr left;
+        private final Ast.Expr right;
+
+        private Key(int kind, Object value, Ast.Expr left, Ast.Expr right) {
+            this.kind = kind;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key &&
+                    kind == ((Key) obj).kind &&
+                    Objects.equals(value, ((Key) obj).value) &&
+                    left == ((Key) obj).left &&
+                    right == ((Key) obj).right;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * kind + Objects.hashCode(value);
+            hash = 31 * hash + (left == null ? 0 : left.hashCode());
+            return 31 * hash + (right == null ? 0 : right.hashCode());
+        }
+
+    }
+
+}
@@ -0,0 +1,863 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A compact, immutable encoding of an {@link Ast.Source} which stores the tree
+ * in a few primitive arrays instead of one object per node. Nodes are
+ * identified by an {@code int} handle; each has a {@link Kind} and a run of
+ * {@code int}s in a shared payload array holding the handles of its children
+ * and the indices of its names, type names, operators and literal values in a
+ * table of (deduplicated) constants. An absent optional value is {@code -1}.
+ *
+ * Children are encoded before their parents, so every child handle is less
+ * than its parent's and the root is the last node. The payload holds the
+ * distance from a node to each child rather than the child's handle, which
+ * keeps the values small (and the {@link AstCache} entries short).
+ *
+ * The source span of each node (see {@link Ast#getStart()}) is kept in two
+ * more arrays and restored by {@link #toAst()}.
+ *
+ * Only the syntax of the tree is encoded: the variables, functions and types
+ * set by the {@link Analyzer} are not, and {@link #toAst()} returns a tree
+ * without them.
+ */
+public final class CompactAst {
+
+    public enum Kind {
+        SOURCE, FIELD, METHOD,
+        EXPRESSION, DECLARATION, ASSIGNMENT, IF, FOR, WHILE, RETURN, ERROR,
+        LITERAL, GROUP, BINARY, ACCESS, FUNCTION
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // Package-private so the AstCache can write and read the arrays as they are.
+    final byte[] kinds;
+    final int[] offsets;
+    final int[] starts;
+    final int[] ends;
+    final int[] data;
+    final Object[] constants;
+
+    CompactAst(byte[] kinds, int[] offsets, int[] starts, int[] ends, int[] data, Object[] constants) {
+        this.kinds = kinds;
+        this.offsets = offsets;
+        this.starts = starts;
+        this.ends = ends;
+        this.data = data;
+        this.constants = constants;
+    }
+
+    /**
+     * Encodes the given tree.
+     */
+    public static CompactAst of(Ast.Source ast) {
+        return of(ast, null);
+    }
+
+    /**
+     * Encodes the given tree, adding each node to {@code nodes} (if it is not
+     * {@code null}) so that its index in the list is its handle.
+     */
+    static CompactAst of(Ast.Source ast, List<Ast> nodes) {
+        Encoder encoder = new Encoder(nodes);
+        encoder.encode(ast);
+        return encoder.build();
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * Returns the handle of the {@link Kind#SOURCE} node.
+     */
+    public int getRoot() {
+        return kinds.length - 1;
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    /**
+     * Returns the start of the source span of a node, or {@code -1} if the
+     * encoded node had no span.
+     */
+    public int getStart(int node) {
+        return starts[node];
+    }
+
+    /**
+     * Returns the end (exclusive) of the source span of a node, or {@code -1}
+     * if the encoded node had no span.
+     */
+    public int getEnd(int node) {
+        return ends[node];
+    }
+
+    /**
+     * Returns the name of a field, method, declaration, for loop, access or
+     * function.
+     */
+    public String getName(int node) {
+        return (String) constants[data[offsets[node]]];
+    }
+
+    /**
+     * Returns the type name of a field or declaration, or the return type
+     * name of a method, which is {@code null} if it is absent.
+     */
+    public String getTypeName(int node) {
+        return (String) constant(data[offsets[node] + 1]);
+    }
+
+    /**
+     * Returns the value of a field or declaration, or {@code -1} if it is
+     * absent, the value of an assignment, for loop or return statement, or
+     * the expression of an expression statement or group.
+     */
+    public int getValue(int node) {
+        int offset = offsets[node];
+        switch (getKind(node)) {
+            case FIELD:
+            case DECLARATION:
+                return child(node, data[offset + 2]);
+            case ASSIGNMENT:
+            case FOR:
+                return child(node, data[offset + 1]);
+            case EXPRESSION:
+            case RETURN:
+            case GROUP:
+                return child(node, data[offset]);
+            default:
+                throw new IllegalArgumentException("Node " + node + " (" + getKind(node) + ") has no value.");
+        }
+    }
+
+    /**
+     * Returns the receiver of an assignment, or of an access or function,
+     * which is {@code -1} if it is absent.
+     */
+    public int getReceiver(int node) {
+        return child(node, getKind(node) == Kind.ASSIGNMENT ? data[offsets[node]] : data[offsets[node] + 1]);
+    }
+
+    /**
+     * Returns the condition of an if or while statement.
+     */
+    public int getCondition(int node) {
+        return child(node, data[offsets[node]]);
+    }
+
+    public int getFieldCount(int source) {
+        return data[offsets[source]];
+    }
+
+    public int getField(int source, int index) {
+        return child(source, data[offsets[source] + 1 + index]);
+    }
+
+    public int getMethodCount(int source) {
+        int offset = offsets[source];
+        return data[offset + 1 + data[offset]];
+    }
+
+    public int getMethod(int source, int index) {
+        int offset = offsets[source];
+        return child(source, data[offset + 2 + data[offset] + index]);
+    }
+
+    public int getParameterCount(int method) {
+        return data[offsets[method] + 2];
+    }
+
+    public String getParameter(int method, int index) {
+        return (String) constants[data[offsets[method] + 3 + 2 * index]];
+    }
+
+    public String getParameterTypeName(int method, int index) {
+        return (String) constants[data[offsets[method] + 4 + 2 * index]];
+    }
+
+    /**
+     * Returns the number of statements of a method, for loop or while loop,
+     * or the number of then statements of an if statement.
+     */
+    public int getStatementCount(int node) {
+        return data[statements(node)];
+    }
+
+    public int getStatement(int node, int index) {
+        return child(node, data[statements(node) + 1 + index]);
+    }
+
+    public int getElseStatementCount(int node) {
+        return data[elseStatements(node)];
+    }
+
+    public int getElseStatement(int node, int index) {
+        return child(node, data[elseStatements(node) + 1 + index]);
+    }
+
+    public String getMessage(int error) {
+        return (String) constants[data[offsets[error]]];
+    }
+
+    public int getIndex(int error) {
+        return data[offsets[error] + 1];
+    }
+
+    public Object getLiteral(int literal) {
+        return constants[data[offsets[literal]]];
+    }
+
+    public String getOperator(int binary) {
+        return (String) constants[data[offsets[binary]]];
+    }
+
+    public int getLeft(int binary) {
+        return child(binary, data[offsets[binary] + 1]);
+    }
+
+    public int getRight(int binary) {
+        return child(binary, data[offsets[binary] + 2]);
+    }
+
+    public int getArgumentCount(int function) {
+        return data[offsets[function] + 2];
+    }
+
+    public int getArgument(int function, int index) {
+        return child(function, data[offsets[function] + 3 + index]);
+    }
+
+    /**
+     * Returns the offset of the statement count of a node in the payload.
+     */
+    private int statements(int node) {
+        int offset = offsets[node];
+        switch (getKind(node)) {
+            case METHOD:
+                return offset + 3 + 2 * data[offset + 2];
+            case FOR:
+                return offset + 2;
+            case IF:
+            case WHILE:
+                return offset + 1;
+            default:
+                throw new IllegalArgumentException("Node " + node + " (" + getKind(node) + ") has no statements.");
+        }
+    }
+
+    private int elseStatements(int node) {
+        if (getKind(node) != Kind.IF) {
+            throw new IllegalArgumentException("Node " + node + " (" + getKind(node) + ") has no else statements.");
+        }
+        int offset = offsets[node] + 1;
+        return offset + 1 + data[offset];
+    }
+
+    /**
+     * Returns the handle of the child at the given distance from a node, or
+     * {@code -1} if it is absent.
+     */
+    private static int child(int node, int distance) {
+        return distance == -1 ? -1 : node - distance;
+    }
+
+    private Object constant(int index) {
+        return index == -1 ? null : constants[index];
+    }
+
+    /**
+     * Decodes the entire tree.
+     */
+    public Ast.Source toAst() {
+        return (Ast.Source) toAst(getRoot());
+    }
+
+    /**
+     * Decodes the subtree of the given node, such as a single method, without
+     * decoding the rest of the tree. The subtree is walked with an explicit
+     * stack, so deeply nested trees do not overflow the call stack.
+     */
+    public Ast toAst(int node) {
+        return toAst(node, null);
+    }
+
+    /**
+     * Decodes the subtree of the given node as in {@link #toAst(int)}, storing
+     * each decoded node in {@code nodes} (if it is not {@code null}) at its
+     * handle. A child handle which is not less than its parent's (so the
+     * arrays were not written by the encoder) throws an {@link
+     * IllegalStateException}.
+     */
+    Ast toAst(int node, Ast[] nodes) {
+        Decoder decoder = new Decoder();
+        decoder.push(node, node + 1);
+        while (decoder.depth > 0) {
+            int next = decoder.pending[--decoder.depth];
+            if (next >= 0) {
+                decoder.push(~next, next + 1);
+                decoder.pushChildren(next);
+            } else {
+                Ast ast = decode(~next, decoder.decoded);
+                if (starts[~next] != -1) {
+                    ast.setSpan(starts[~next], ends[~next]);
+                }
+                if (nodes != null) {
+                    nodes[~next] = ast;
+                }
+                decoder.decoded.add(ast);
+            }
+        }
+        return decoder.decoded.get(0);
+    }
+
+    /**
+     * The explicit stacks of {@link #toAst(int, Ast[])}: the handles left to
+     * expand (or the complement of a handle whose children have been decoded)
+     * and the decoded nodes awaiting their parent.
+     */
+    private final class Decoder {
+
+        private int[] pending = new int[16];
+        private int depth = 0;
+        private final ArrayList<Ast> decoded = new ArrayList<>();
+
+        /**
+         * Pushes a handle, which must be less than its parent's (or the
+         * complement of a handle, which is negative).
+         */
+        private void push(int node, int parent) {
+            if (node >= parent) {
+                throw new IllegalStateException("Node " + parent + " has an invalid child " + node + ".");
+            }
+            if (depth == pending.length) {
+                pending = Arrays.copyOf(pending, depth * 2);
+            }
+            pending[depth++] = node;
+        }
+
+        /**
+         * Pushes the {@code count} children whose distances start at {@code
+         * offset} in the payload, in reverse so they are decoded in order.
+         */
+        private void pushAll(int node, int offset, int count) {
+            for (int i = offset + count - 1; i >= offset; i--) {
+                push(node - data[i], node);
+            }
+        }
+
+        private void pushOptional(int node, int distance) {
+            if (distance != -1) {
+                push(node - distance, node);
+            }
+        }
+
+        private void pushChildren(int node) {
+            int offset = offsets[node];
+            switch (getKind(node)) {
+                case SOURCE:
+                    pushAll(node, offset + 2 + data[offset], getMethodCount(node));
+                    pushAll(node, offset + 1, data[offset]);
+                    break;
+                case FIELD:
+                case DECLARATION:
+                    pushOptional(node, data[offset + 2]);
+                    break;
+                case METHOD:
+                case IF:
+                case FOR:
+                case WHILE:
+                    if (getKind(node) == Kind.IF) {
+                        pushAll(node, elseStatements(node) + 1, getElseStatementCount(node));
+                    }
+                    pushAll(node, statements(node) + 1, getStatementCount(node));
+                    if (getKind(node) != Kind.METHOD) {
+                        pushAll(node, getKind(node) == Kind.FOR ? offset + 1 : offset, 1);
+                    }
+                    break;
+                case EXPRESSION:
+                case RETURN:
+                case GROUP:
+                    pushAll(node, offset, 1);
+                    break;
+                case ASSIGNMENT:
+                    pushAll(node, offset, 2);
+                    break;
+                case BINARY:
+                    pushAll(node, offset + 1, 2);
+                    break;
+                case ACCESS:
+                    pushOptional(node, data[offset + 1]);
+                    break;
+                case FUNCTION:
+                    pushAll(node, offset + 3, data[offset + 2]);
+                    pushOptional(node, data[offset + 1]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+    }
+
+    /**
+     * Creates a node from its children, which have been decoded onto the end
+     * of the given list in order (and are removed from it).
+     */
+    private Ast decode(int node, ArrayList<Ast> decoded) {
+        switch (getKind(node)) {
+            case SOURCE: {
+                List<Ast.Method> methods = pop(decoded, getMethodCount(node));
+                List<Ast.Field> fields = pop(decoded, getFieldCount(node));
+                return new Ast.Source(fields, methods);
+            }
+            case FIELD:
+                return new Ast.Field(getName(node), getTypeName(node), optionalExpr(getValue(node), decoded));
+            case METHOD: {
+                List<String> parameters = new ArrayList<>();
+                List<String> parameterTypeNames = new ArrayList<>();
+                for (int i = 0; i < getParameterCount(node); i++) {
+                    parameters.add(getParameter(node, i));
+                    parameterTypeNames.add(getParameterTypeName(node, i));
+                }
+                return new Ast.Method(getName(node), parameters, parameterTypeNames,
+                        Optional.ofNullable(getTypeName(node)), pop(decoded, getStatementCount(node)));
+            }
+            case EXPRESSION:
+                return new Ast.Stmt.Expression(pop(decoded));
+            case DECLARATION:
+                return new Ast.Stmt.Declaration(getName(node), Optional.ofNullable(getTypeName(node)), optionalExpr(getValue(node), decoded));
+            case ASSIGNMENT: {
+                Ast.Expr value = pop(decoded);
+                return new Ast.Stmt.Assignment(pop(decoded), value);
+            }
+            case IF: {
+                List<Ast.Stmt> elseStatements = pop(decoded, getElseStatementCount(node));
+                List<Ast.Stmt> thenStatements = pop(decoded, getStatementCount(node));
+                return new Ast.Stmt.If(pop(decoded), thenStatements, elseStatements);
+            }
+            case FOR: {
+                List<Ast.Stmt> statements = pop(decoded, getStatementCount(node));
+                return new Ast.Stmt.For(getName(node), pop(decoded), statements);
+            }
+            case WHILE: {
+                List<Ast.Stmt> statements = pop(decoded, getStatementCount(node));
+                return new Ast.Stmt.While(pop(decoded), statements);
+            }
+            case RETURN:
+                return new Ast.Stmt.Return(pop(decoded));
+            case ERROR:
+                return new Ast.Stmt.Error(getMessage(node), getIndex(node));
+            case LITERAL:
+                return new Ast.Expr.Literal(getLiteral(node));
+            case GROUP:
+                return new Ast.Expr.Group(pop(decoded));
+            case BINARY: {
+                Ast.Expr right = pop(decoded);
+                return new Ast.Expr.Binary(getOperator(node), pop(decoded), right);
+            }
+            case ACCESS:
+                return new Ast.Expr.Access(optionalExpr(getReceiver(node), decoded), getName(node));
+            case FUNCTION: {
+                List<Ast.Expr> arguments = pop(decoded, getArgumentCount(node));
+                return new Ast.Expr.Function(optionalExpr(getReceiver(node), decoded), getName(node), arguments);
+            }
+            default:
+                throw new AssertionError(getKind(node));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Ast> T pop(ArrayList<Ast> decoded) {
+        return (T) decoded.remove(decoded.size() - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Ast> List<T> pop(ArrayList<Ast> decoded, int count) {
+        List<Ast> last = decoded.subList(decoded.size() - count, decoded.size());
+        List<T> asts = new ArrayList<>((List<T>) last);
+        last.clear();
+        return asts;
+    }
+
+    private static Optional<Ast.Expr> optionalExpr(int node, ArrayList<Ast> decoded) {
+        return node == -1 ? Optional.empty() : Optional.of(pop(decoded));
+    }
+
+    /**
+     * Encodes a tree bottom up with an explicit stack, so deeply nested trees
+     * do not overflow the call stack. Each node is first expanded, pushing
+     * its children, and visited once they have all been encoded: the visit
+     * methods pop the handles of the node's children (in reverse order) and
+     * return the handle of the node.
+     */
+    private static final class Encoder implements Ast.Visitor<Integer> {
+
+        private byte[] kinds = new byte[256];
+        private int[] offsets = new int[256];
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int size = 0;
+        private int[] data = new int[1024];
+        private int length = 0;
+        private final HashMap<Object, Integer> indices = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+
+        private final ArrayList<Ast> pending = new ArrayList<>();
+        private boolean[] expanded = new boolean[64];
+        private final Expander expander = new Expander();
+        private int[] handles = new int[64];
+        private int encoded = 0;
+        private final List<Ast> nodes;
+
+        private Encoder(List<Ast> nodes) {
+            this.nodes = nodes;
+        }
+
+        private CompactAst build() {
+            return new CompactAst(Arrays.copyOf(kinds, size), Arrays.copyOf(offsets, size),
+                    Arrays.copyOf(starts, size), Arrays.copyOf(ends, size),
+                    Arrays.copyOf(data, length), constants.toArray());
+        }
+
+        private int encode(Ast root) {
+            push(root);
+            while (!pending.isEmpty()) {
+                int top = pending.size() - 1;
+                Ast ast = pending.get(top);
+                if (!expanded[top]) {
+                    expanded[top] = true;
+                    expander.visit(ast);
+                } else {
+                    pending.remove(top);
+                    int node = ast.accept(this);
+                    starts[node] = ast.getStart();
+                    ends[node] = ast.getEnd();
+                    if (nodes != null) {
+                        nodes.add(ast);
+                    }
+                    if (encoded == handles.length) {
+                        handles = Arrays.copyOf(handles, encoded * 2);
+                    }
+                    handles[encoded++] = node;
+                }
+            }
+            return handles[--encoded];
+        }
+
+        private void push(Ast ast) {
+            if (pending.size() == expanded.length) {
+                expanded = Arrays.copyOf(expanded, pending.size() * 2);
+            }
+            expanded[pending.size()] = false;
+            pending.add(ast);
+        }
+
+        /**
+         * Returns the distance to the last encoded child from the node being
+         * encoded (which will be the next handle).
+         */
+        private int pop() {
+            return size - handles[--encoded];
+        }
+
+        /**
+         * Returns the distances to the last {@code count} encoded children, in
+         * order.
+         */
+        private int[] pop(int count) {
+            encoded -= count;
+            int[] distances = new int[count];
+            for (int i = 0; i < count; i++) {
+                distances[i] = size - handles[encoded + i];
+            }
+            return distances;
+        }
+
+        private int constant(Object value) {
+            return indices.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+        }
+
+        private int optional(Optional<?> value) {
+            return value.isPresent() ? constant(value.get()) : -1;
+        }
+
+        private int optionalExpr(Optional<Ast.Expr> value) {
+            return value.isPresent() ? pop() : -1;
+        }
+
+        /**
+         * Adds a node whose payload is the given values, with each array
+         * written as its length followed by its elements.
+         */
+        private int node(Kind kind, Object... values) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            kinds[size] = (byte) kind.ordinal();
+            offsets[size] = length;
+            for (Object value : values) {
+                if (value instanceof int[]) {
+                    int[] array = (int[]) value;
+                    append(array.length);
+                    for (int element : array) {
+                        append(element);
+                    }
+                } else {
+                    append((Integer) value);
+                }
+            }
+            return size++;
+        }
+
+        private void append(int value) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, length * 2);
+            }
+            data[length++] = value;
+        }
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            int[] methods = pop(ast.getMethods().size());
+            int[] fields = pop(ast.getFields().size());
+            return node(Kind.SOURCE, fields, methods);
+        }
+
+        @Override
+        public Integer visit(Ast.Field ast) {
+            int value = optionalExpr(ast.getValue());
+            return node(Kind.FIELD, constant(ast.getName()), constant(ast.getTypeName()), value);
+        }
+
+        @Override
+        public Integer visit(Ast.Method ast) {
+            int[] statements = pop(ast.getStatements().size());
+            int[] parameters = new int[2 * ast.getParameters().size()];
+            for (int i = 0; i < ast.getParameters().size(); i++) {
+                parameters[2 * i] = constant(ast.getParameters().get(i));
+                parameters[2 * i + 1] = constant(ast.getParameterTypeNames().get(i));
+            }
+            // The parameter count is of pairs, so it is written separately.
+            int method = node(Kind.METHOD, constant(ast.getName()), optional(ast.getReturnTypeName()), parameters.length / 2);
+            for (int parameter : parameters) {
+                append(parameter);
+            }
+            append(statements.length);
+            for (int statement : statements) {
+                append(statement);
+            }
+            return method;
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Expression ast) {
+            return node(Kind.EXPRESSION, pop());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Declaration ast) {
+            int value = optionalExpr(ast.getValue());
+            return node(Kind.DECLARATION, constant(ast.getName()), optional(ast.getTypeName()), value);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Assignment ast) {
+            int value = pop();
+            return node(Kind.ASSIGNMENT, pop(), value);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.If ast) {
+            int[] elseStatements = pop(ast.getElseStatements().size());
+            int[] thenStatements = pop(ast.getThenStatements().size());
+            return node(Kind.IF, pop(), thenStatements, elseStatements);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.For ast) {
+            int[] statements = pop(ast.getStatements().size());
+            return node(Kind.FOR, constant(ast.getName()), pop(), statements);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.While ast) {
+            int[] statements = pop(ast.getStatements().size());
+            return node(Kind.WHILE, pop(), statements);
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Return ast) {
+            return node(Kind.RETURN, pop());
+        }
+
+        @Override
+        public Integer visit(Ast.Stmt.Error ast) {
+            return node(Kind.ERROR, constant(ast.getMessage()), ast.getIndex());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Literal ast) {
+            return node(Kind.LITERAL, constant(ast.getLiteral()));
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Group ast) {
+            return node(Kind.GROUP, pop());
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Binary ast) {
+            int right = pop();
+            return node(Kind.BINARY, constant(ast.getOperator()), pop(), right);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Access ast) {
+            int receiver = optionalExpr(ast.getReceiver());
+            return node(Kind.ACCESS, constant(ast.getName()), receiver);
+        }
+
+        @Override
+        public Integer visit(Ast.Expr.Function ast) {
+            int[] arguments = pop(ast.getArguments().size());
+            return node(Kind.FUNCTION, constant(ast.getName()), optionalExpr(ast.getReceiver()), arguments);
+        }
+
+        /**
+         * Pushes the children of a node onto the encoder's stack in reverse,
+         * so they are encoded in order.
+         */
+        private final class Expander implements Ast.Visitor<Void> {
+
+            private void pushAll(List<? extends Ast> asts) {
+                for (int i = asts.size() - 1; i >= 0; i--) {
+                    push(asts.get(i));
+                }
+            }
+
+            @Override
+            public Void visit(Ast.Source ast) {
+                pushAll(ast.getMethods());
+                pushAll(ast.getFields());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Field ast) {
+                ast.getValue().ifPresent(Encoder.this::push);
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Method ast) {
+                pushAll(ast.getStatements());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.Expression ast) {
+                push(ast.getExpression());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.Declaration ast) {
+                ast.getValue().ifPresent(Encoder.this::push);
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.Assignment ast) {
+                push(ast.getValue());
+                push(ast.getReceiver());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.If ast) {
+                pushAll(ast.getElseStatements());
+                pushAll(ast.getThenStatements());
+                push(ast.getCondition());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.For ast) {
+                pushAll(ast.getStatements());
+                push(ast.getValue());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.While ast) {
+                pushAll(ast.getStatements());
+                push(ast.getCondition());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.Return ast) {
+                push(ast.getValue());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Stmt.Error ast) {
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Literal ast) {
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Group ast) {
+                push(ast.getExpression());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Binary ast) {
+                push(ast.getRight());
+                push(ast.getLeft());
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Access ast) {
+                ast.getReceiver().ifPresent(Encoder.this::push);
+                return null;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Function ast) {
+                pushAll(ast.getArguments());
+                ast.getReceiver().ifPresent(Encoder.this::push);
+                return null;
+            }
+
+        }
+
+    }
+
+}
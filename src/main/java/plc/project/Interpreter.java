@@ -11,6 +11,15 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     private Scope scope = new Scope(null);
     private HashMap<String, Scope> methodScopes = new HashMap<>();
+    private final ArrayList<Scope> frames = new ArrayList<>();
+
+    /**
+     * The scope and type of the values of literals, which have no fields or
+     * methods of their own, so they share one rather than each allocating a
+     * scope (as {@link Environment#create(Object)} does).
+     */
+    private final Scope literalScope = new Scope(null);
+    private final Environment.Type literalType = new Environment.Type("Unknown", "Unknown", literalScope);
 
     public Interpreter(Scope parent) {
         scope = new Scope(parent);
@@ -91,11 +100,15 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Stmt.Declaration ast) {
-
+        Environment.PlcObject value = Environment.NIL;
         if(ast.getValue().isPresent()) {
-            scope.defineVariable(ast.getName(), visit(ast.getValue().get()));
+            value = visit(ast.getValue().get());
+        }
+
+        if(ast.getSlot() != -1) {
+            scope.defineVariable(ast.getSlot(), ast.getName(), value);
         } else {
-            scope.defineVariable(ast.getName(), Environment.NIL);
+            scope.defineVariable(ast.getName(), value);
         }
 
         return Environment.NIL;
@@ -111,7 +124,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 String name = rec.getName();
                 visit(rec.getReceiver().get()).setField(name, val);
             } else {
-                scope.lookupVariable(rec.getName()).setValue(val);
+                lookupVariable(rec).setValue(val);
             }
         } else {
             throw new RuntimeException("Cannot assign this to a value");
@@ -126,21 +139,21 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         Environment.PlcObject o = visit(ast.getCondition());
         if(requireType(Boolean.class, o)) {
             try {
-                scope = new Scope(scope);
+                pushFrame();
                 for(Ast.Stmt stmt : ast.getThenStatements()) {
                     visit(stmt);
                 }
             } finally {
-                scope = scope.getParent();
+                popFrame();
             }
         } else {
             try {
-                scope = new Scope(scope);
+                pushFrame();
                 for (Ast.Stmt stmt : ast.getElseStatements()) {
                     visit(stmt);
                 }
             } finally {
-                scope = scope.getParent();
+                popFrame();
             }
         }
 
@@ -155,13 +168,16 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         Iterator<Environment.PlcObject> iter = it.iterator();
 
         iter.forEachRemaining(args -> {
-                scope = new Scope(scope);
+            try {
+                pushFrame();
                 scope.defineVariable(name, iter.next());
                 List<Ast.Stmt> stmts = ast.getStatements();
                 for(Ast.Stmt stmt : stmts) {
                     visit(stmt);
                 }
-                scope = scope.getParent();
+            } finally {
+                popFrame();
+            }
         });
 
         return Environment.NIL;
@@ -172,12 +188,12 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
         while(requireType(Boolean.class, visit(ast.getCondition()))) {
             try {
-                scope = new Scope(scope);
+                pushFrame();
                 for(Ast.Stmt stmt : ast.getStatements()) {
                     visit(stmt);
                 }
             } finally {
-                scope = scope.getParent();
+                popFrame();
             }
         }
 
@@ -193,7 +209,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Expr.Literal ast) {
         if(ast.getLiteral() == null) return Environment.NIL;
-        else return new Environment.PlcObject(scope, ast.getLiteral());
+        else return new Environment.PlcObject(literalType, literalScope, ast.getLiteral());
     }
 
     @Override
@@ -282,10 +298,21 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         if(obj != null) {
             return obj.getField(ast.getName()).getValue();
         } else {
-            return scope.lookupVariable(ast.getName()).getValue();
+            return lookupVariable(ast).getValue();
         }
     }
 
+    /**
+     * Looks up the variable of an access without a receiver by its address,
+     * if the {@link Analyzer} set one, or else by name.
+     */
+    private Environment.Variable lookupVariable(Ast.Expr.Access ast) {
+        if(ast.getDepth() != -1) {
+            return scope.lookupVariable(ast.getDepth(), ast.getSlot());
+        }
+        return scope.lookupVariable(ast.getName());
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Expr.Function ast) {
         Environment.PlcObject obj = null;
@@ -303,6 +330,22 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         }
     }
 
+    /**
+     * Enters the scope of a block, reusing the frame of a block which has
+     * been exited if there is one. Nothing keeps a reference to a frame once
+     * its block is exited, since values do not refer to the scope they were
+     * created in, so frames can be recycled safely.
+     */
+    private void pushFrame() {
+        scope = frames.isEmpty() ? new Scope(scope) : frames.remove(frames.size() - 1).reset(scope);
+    }
+
+    private void popFrame() {
+        Scope frame = scope;
+        scope = frame.getParent();
+        frames.add(frame.reset(null));
+    }
+
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
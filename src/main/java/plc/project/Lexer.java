@@ -1,9 +1,22 @@
 package plc.project;
 
-import java.awt.print.PrinterAbortException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The lexer works through three main functions:
@@ -21,12 +34,127 @@ import java.util.regex.Pattern;
  */
 public final class Lexer {
 
+    /**
+     * Character classes used by the lexer, matching the regexes of the
+     * original grammar: {@code \s} and {@code \b} for whitespace,
+     * {@code \d}, {@code [a-zA-Z_]}, {@code \w|-}, the escape set
+     * {@code [bnrtf'"\\]} and the comparison set {@code [<>!=]}. All of
+     * them are ASCII, so anything outside of the table has no class.
+     */
+    private static final int WHITESPACE = 1, DIGIT = 2, IDENTIFIER_START = 4,
+            IDENTIFIER_PART = 8, ESCAPE = 16, COMPARISON = 32;
+
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c : " \t\n\u000B\f\r\b".toCharArray()) CLASSES[c] |= WHITESPACE;
+        for (char c = '0'; c <= '9'; c++) CLASSES[c] |= DIGIT | IDENTIFIER_PART;
+        for (char c = 'a'; c <= 'z'; c++) CLASSES[c] |= IDENTIFIER_START | IDENTIFIER_PART;
+        for (char c = 'A'; c <= 'Z'; c++) CLASSES[c] |= IDENTIFIER_START | IDENTIFIER_PART;
+        CLASSES['_'] |= IDENTIFIER_START | IDENTIFIER_PART;
+        CLASSES['-'] |= IDENTIFIER_PART;
+        for (char c : "bnrtf'\"\\".toCharArray()) CLASSES[c] |= ESCAPE;
+        for (char c : "<>!=".toCharArray()) CLASSES[c] |= COMPARISON;
+    }
+
+    /**
+     * The minimum number of characters in each chunk of {@link
+     * #lexParallel(ForkJoinPool)}, below which splitting is not worthwhile.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+
     private final CharStream chars;
+    private SymbolTable symbols = new SymbolTable();
+    private LineIndex lines = null;
 
     public Lexer(String input) {
         chars = new CharStream(input);
     }
 
+    /**
+     * Creates a lexer over any character sequence, such as a memory mapped
+     * file (see {@link #Lexer(Path)}). Token literals are sliced out of the
+     * sequence only when {@link Token#getLiteral()} is called, so the sequence
+     * must not change while its tokens are in use.
+     */
+    public Lexer(CharSequence input) {
+        chars = new CharStream(input);
+    }
+
+    /**
+     * Creates a lexer over the contents of the given file, which is memory
+     * mapped instead of being read onto the heap. ASCII files (which is all
+     * the grammar needs outside of literals) are lexed directly from the
+     * mapped bytes; otherwise the mapping is decoded as UTF-8 first.
+     */
+    public Lexer(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (MappedInput.isAscii(buffer)) {
+                chars = new CharStream(new MappedInput(buffer));
+            } else {
+                chars = new CharStream(StandardCharsets.UTF_8.decode(buffer));
+            }
+        }
+    }
+
+    /**
+     * Creates a lexer reading from the given reader. Characters are pulled
+     * through a sliding buffer as tokens are lexed, so when combined with
+     * {@link #tokens()} memory stays proportional to the longest token rather
+     * than the size of the input.
+     */
+    public Lexer(Reader input) {
+        chars = new CharStream(input);
+    }
+
+    /**
+     * Creates a lexer reading UTF-8 encoded input from the given channel, as
+     * in {@link #Lexer(Reader)}.
+     */
+    public Lexer(ReadableByteChannel input) {
+        this(Channels.newReader(input, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    private Lexer(CharStream chars) {
+        this.chars = chars;
+    }
+
+    private Lexer(CharStream chars, SymbolTable symbols) {
+        this.chars = chars;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Returns the table identifiers and operators are interned into, which
+     * can be reused by later passes to refer to the same symbols.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the line index of the input, which is used to locate {@link
+     * ParseException}s thrown by the lexer. For a character sequence it is
+     * built on the first call; for a reader it is recorded as the input is
+     * read, and covers only the lines still in the lexer's buffer (those of
+     * the token being lexed onwards), so its size does not grow with the
+     * length of the input.
+     */
+    public LineIndex getLineIndex() {
+        if(chars.input == null) return chars.lines;
+        if(lines == null) lines = LineIndex.of(chars.input);
+        return lines;
+    }
+
+    /**
+     * Returns the number of characters the buffer of a lexer reading from a
+     * reader holds, or {@code 0} for other inputs.
+     */
+    int getBufferSize() {
+        return chars.buffer == null ? 0 : chars.buffer.length;
+    }
+
     /**
      * Repeatedly lexes the input using {@link #lexToken()}, also skipping over
      * whitespace where appropriate.
@@ -34,14 +162,285 @@ public final class Lexer {
     public List<Token> lex() {
         ArrayList<Token> tokens = new ArrayList<Token>();
 
-        while(chars.has(0)){
-            Token t = lexToken();
-            if(t != null) tokens.add(t);
+        try {
+            while(chars.has(0)){
+                Token t = lexToken();
+                if(t != null) tokens.add(t);
+            }
+        } catch(ParseException e) {
+            e.setLines(getLineIndex());
+            throw e;
         }
 
         return tokens;
     }
 
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but stores the tokens
+     * in a {@link TokenBuffer} which keeps only their types and positions.
+     * This requires the lexer to have been created over a string or other
+     * character sequence, since literals are read back out of the input.
+     * Tokens are written straight into the buffer, so no {@link Token}
+     * objects are created.
+     */
+    public TokenBuffer lexBuffer() {
+        if(chars.input == null) throw new IllegalStateException("A token buffer requires the input to be a character sequence.");
+        TokenBuffer tokens = new TokenBuffer(chars.input);
+
+        try {
+            while(chars.has(0)){
+                Token.Type type = scanToken();
+                if(type != null) {
+                    int start = chars.index - chars.length;
+                    int symbol = type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR
+                            ? symbols.intern(chars.input, start, chars.index) : SymbolTable.NONE;
+                    tokens.add(type, start, chars.length, symbol);
+                    chars.skip();
+                }
+            }
+        } catch(ParseException e) {
+            e.setLines(getLineIndex());
+            throw e;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, using the common
+     * fork/join pool. See {@link #lexParallel(ForkJoinPool)}.
+     */
+    public List<Token> lexParallel() {
+        return lexParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but splits it into
+     * chunks which are lexed concurrently on the given pool.
+     *
+     * Chunks are split after a newline. String literals cannot contain a
+     * newline, and the only token that can is a character literal of a raw
+     * newline ({@code '}, newline, {@code '}), so no split is made between
+     * two quotes. Any other newline is outside of every token and the lexer
+     * never needs to look past one to finish the token before it, so each
+     * chunk lexes exactly the tokens the sequential lexer would. Identifiers
+     * are interned into per-chunk symbol tables which are then merged into
+     * this lexer's table in order. If any chunk fails, the input is lexed
+     * sequentially, so the result (or exception) is always that of {@link
+     * #lex()}.
+     */
+    public List<Token> lexParallel(ForkJoinPool pool) {
+        if(chars.input == null) throw new IllegalStateException("Parallel lexing requires the input to be a character sequence.");
+        CharSequence input = chars.input;
+        int start = chars.index;
+        int chunkSize = Math.max(MIN_CHUNK, (input.length() - start) / (pool.getParallelism() * 4));
+
+        ArrayList<Lexer> lexers = new ArrayList<>();
+        int from = start;
+        while(from < input.length()) {
+            int to = Math.min(from + chunkSize, input.length());
+            while(to < input.length() && (input.charAt(to - 1) != '\n'
+                    || (to - 2 >= from && input.charAt(to - 2) == '\'' && input.charAt(to) == '\''))) {
+                to++;
+            }
+            lexers.add(new Lexer(new CharStream(input, from, to)));
+            from = to;
+        }
+        if(lexers.size() < 2) return lex();
+
+        ArrayList<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        for(Lexer lexer : lexers) {
+            tasks.add(pool.submit(lexer::lex));
+        }
+
+        ArrayList<Token> tokens = new ArrayList<Token>();
+        try {
+            for(int i = 0; i < lexers.size(); i++) {
+                List<Token> chunk = tasks.get(i).join();
+                tokens.ensureCapacity(tokens.size() + chunk.size());
+                merge(lexers.get(i).symbols, chunk, tokens);
+            }
+        } catch(RuntimeException e) {
+            for(ForkJoinTask<List<Token>> task : tasks) {
+                task.cancel(false);
+            }
+            return lex();
+        }
+
+        chars.index = input.length();
+        chars.skip();
+        return tokens;
+    }
+
+    /**
+     * Interns the symbols of a chunk lexed with its own table into this
+     * lexer's table, adding the chunk's tokens with their symbols remapped.
+     */
+    private void merge(SymbolTable table, List<Token> chunk, List<Token> tokens) {
+        int[] remap = new int[table.size()];
+        boolean identity = true;
+        for(int id = SymbolTable.RESERVED_COUNT; id < table.size(); id++) {
+            remap[id] = symbols.intern(table.getName(id));
+            identity &= remap[id] == id;
+        }
+        for(Token token : chunk) {
+            if(identity || token.getSymbol() < SymbolTable.RESERVED_COUNT) tokens.add(token);
+            else tokens.add(token.withSymbol(remap[token.getSymbol()]));
+        }
+    }
+
+    /**
+     * Updates the tokens of {@code source} for an edit replacing {@code
+     * removed} characters at {@code offset} with {@code inserted}, returning
+     * the tokens of the edited source as {@link #lex()} would. The tokens
+     * must have been interned into {@code symbols} (such as the {@link
+     * #getSymbols()} of the lexer which produced them).
+     *
+     * Tokens ending at least two characters before the edit (the furthest the
+     * lexer looks past a token) are kept as they are. Lexing restarts after
+     * them and stops as soon as a token starts in the unchanged text at the
+     * same position as an old token, since the lexer carries no state between
+     * tokens. The remaining old tokens are shifted by the change in length.
+     * Identifiers in the re-lexed region are interned into the same table,
+     * so they have the same symbols as in the kept tokens.
+     *
+     * This saves lexing the unchanged text, but each edit still takes time
+     * proportional to the whole source: the edited source is built as a new
+     * string, and every token after the edit is recreated at its new
+     * position. {@link #relex(TokenBuffer, SymbolTable, int, int, int)}
+     * updates a token buffer in place instead.
+     */
+    public static List<Token> relex(List<Token> tokens, SymbolTable symbols, String source, int offset, int removed, String inserted) {
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        int delta = inserted.length() - removed;
+
+        int low = 0, high = tokens.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(end(tokens.get(mid)) + 2 <= offset) low = mid + 1;
+            else high = mid;
+        }
+        int kept = low;
+        int restart = kept > 0 ? end(tokens.get(kept - 1)) : 0;
+
+        int next = kept;
+        while(next < tokens.size() && tokens.get(next).getIndex() < offset + removed) {
+            next++;
+        }
+
+        ArrayList<Token> result = new ArrayList<Token>(tokens.subList(0, kept));
+        Lexer lexer = new Lexer(new CharStream(edited, restart, edited.length()), symbols);
+        Iterator<Token> relexed = lexer.tokens();
+        while(relexed.hasNext()) {
+            Token t = relexed.next();
+            while(next < tokens.size() && tokens.get(next).getIndex() + delta < t.getIndex()) {
+                next++;
+            }
+            if(t.getIndex() >= offset + inserted.length() && next < tokens.size() && tokens.get(next).getIndex() + delta == t.getIndex()) {
+                for(int i = next; i < tokens.size(); i++) {
+                    result.add(delta == 0 ? tokens.get(i) : tokens.get(i).moved(edited, delta));
+                }
+                return result;
+            }
+            result.add(t);
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates a token buffer in place for an edit replacing {@code removed}
+     * characters at {@code offset} with {@code inserted} characters, in the
+     * same way as {@link #relex(List, SymbolTable, String, int, int,
+     * String)}. The buffer's source must be a mutable sequence (such as a
+     * {@link StringBuilder} given to {@link #Lexer(CharSequence)}) which has
+     * already been edited, so it is not copied. Only the changed region is
+     * lexed again, straight into the buffer's arrays, and the tokens after it
+     * are moved within the arrays with their start indices shifted, so no
+     * {@link Token}s or literals are created. Tokens already taken from the
+     * buffer slice their literals out of the edited source.
+     */
+    public static void relex(TokenBuffer tokens, SymbolTable symbols, int offset, int removed, int inserted) {
+        CharSequence source = tokens.getSource();
+        int delta = inserted - removed;
+
+        int low = 0, high = tokens.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(tokens.indexAt(mid) + tokens.lengthAt(mid) + 2 <= offset) low = mid + 1;
+            else high = mid;
+        }
+        int kept = low;
+        int restart = kept > 0 ? tokens.indexAt(kept - 1) + tokens.lengthAt(kept - 1) : 0;
+
+        int next = kept;
+        while(next < tokens.size() && tokens.indexAt(next) < offset + removed) {
+            next++;
+        }
+
+        TokenBuffer relexed = new TokenBuffer(source);
+        Lexer lexer = new Lexer(new CharStream(source, restart, source.length()), symbols);
+        CharStream chars = lexer.chars;
+        try {
+            while(chars.has(0)) {
+                Token.Type type = lexer.scanToken();
+                if(type == null) continue;
+                int start = chars.index - chars.length;
+                while(next < tokens.size() && tokens.indexAt(next) + delta < start) {
+                    next++;
+                }
+                if(start >= offset + inserted && next < tokens.size() && tokens.indexAt(next) + delta == start) {
+                    tokens.replace(kept, next, relexed, delta);
+                    return;
+                }
+                int symbol = type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR
+                        ? symbols.intern(source, start, chars.index) : SymbolTable.NONE;
+                relexed.add(type, start, chars.length, symbol);
+                chars.skip();
+            }
+        } catch(ParseException e) {
+            e.setLines(lexer.getLineIndex());
+            throw e;
+        }
+        tokens.replace(kept, tokens.size(), relexed, delta);
+    }
+
+    private static int end(Token token) {
+        return token.getIndex() + token.getLiteral().length();
+    }
+
+    /**
+     * Returns an iterator lexing tokens on demand with {@link #lexToken()},
+     * producing the same tokens as {@link #lex()} without holding all of them
+     * in memory. This can be passed directly to {@link Parser#Parser(Iterator)}.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<Token>() {
+
+            private Token next = null;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    if(next == null && chars.has(0)) next = lexToken();
+                } catch(ParseException e) {
+                    e.setLines(getLineIndex());
+                    throw e;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                Token token = next;
+                next = null;
+                return token;
+            }
+
+        };
+    }
+
     /**
      * This method determines the type of the next token, delegating to the
      * appropriate lex method. As such, it is best for this method to not change
@@ -51,64 +450,93 @@ public final class Lexer {
      * by {@link #lex()}
      */
     public Token lexToken() {
+        return emit(scanToken());
+    }
+
+    /**
+     * Matches the next token like {@link #lexToken()}, returning its type (or
+     * null at the end of the input) and leaving its characters as the current
+     * token of the char stream, so the caller decides how to store it.
+     */
+    private Token.Type scanToken() {
+        lexWhitespace();
         if(chars.has(0)) {
-            if (peek("\\s") || peek("\b")) {
-                lexEscape();
-                return lexToken();
-            } else if (peek("\\+") || peek("\\-")) {
-                if (peek("[\\+\\-]", "\\d")) return lexNumber();
-                else return lexOperator();
-            } else if (peek("\\d")) {
-                return lexNumber();
-            } else if (peek("\"")) {
-                return lexString();
-            } else if (peek("\'")) {
-                return lexCharacter();
-            } else if (peek("[a-zA-Z_]")) {
-                return lexIdentifier();
+            if (peekChar(0, '+') || peekChar(0, '-')) {
+                if (peekClass(1, DIGIT)) return scanNumber();
+                else return scanOperator();
+            } else if (peekClass(0, DIGIT)) {
+                return scanNumber();
+            } else if (peekChar(0, '"')) {
+                return scanString();
+            } else if (peekChar(0, '\'')) {
+                return scanCharacter();
+            } else if (peekClass(0, IDENTIFIER_START)) {
+                return scanIdentifier();
             } else {
-                return lexOperator();
+                return scanOperator();
             }
         } else return null;
     }
 
+    /**
+     * Creates the token matched by one of the scan methods, interning
+     * identifiers and operators into the symbol table.
+     */
+    private Token emit(Token.Type type) {
+        if(type == null) return null;
+        if(type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) return chars.emit(type, symbols);
+        return chars.emit(type);
+    }
+
     public Token lexIdentifier() {
+        return emit(scanIdentifier());
+    }
+
+    private Token.Type scanIdentifier() {
         chars.advance();
-        while(peek("\\w|-")) {
+        while(peekClass(0, IDENTIFIER_PART)) {
             chars.advance();
         }
 
-        return chars.emit(Token.Type.IDENTIFIER);
+        return Token.Type.IDENTIFIER;
     }
 
     public Token lexNumber() {
+        return emit(scanNumber());
+    }
+
+    private Token.Type scanNumber() {
         chars.advance();
         boolean alreadyDec = false;
-        while(peek("\\d|\\.")) {
-            if(peek("\\.")) {
-                if(!peek("\\.", "\\d")) return chars.emit((alreadyDec? Token.Type.DECIMAL : Token.Type.INTEGER));
-                else if(alreadyDec) return chars.emit(Token.Type.DECIMAL);
+        while(peekClass(0, DIGIT) || peekChar(0, '.')) {
+            if(peekChar(0, '.')) {
+                if(!peekClass(1, DIGIT)) return (alreadyDec? Token.Type.DECIMAL : Token.Type.INTEGER);
+                else if(alreadyDec) return Token.Type.DECIMAL;
                 alreadyDec = true;
             }
             chars.advance();
         }
-        return chars.emit((alreadyDec? Token.Type.DECIMAL : Token.Type.INTEGER));
+        return (alreadyDec? Token.Type.DECIMAL : Token.Type.INTEGER);
     }
 
     public Token lexCharacter() {
-        if(!peek("\'", "\'")) {
+        return emit(scanCharacter());
+    }
+
+    private Token.Type scanCharacter() {
+        if(!(peekChar(0, '\'') && peekChar(1, '\''))) {
             if(chars.has(2)) {
                 if (chars.get(2) == '\'' && chars.get(1) != '\\') {
                     advanceN(3);
-                    return chars.emit(Token.Type.CHARACTER);
-                } else if (peek("\'", "\n|\r")) {
+                    return Token.Type.CHARACTER;
+                } else if (peekChar(0, '\'') && (peekChar(1, '\n') || peekChar(1, '\r'))) {
                     throw new ParseException("language does not support multi line character definitions, use escape characters", chars.index + 1);
                 } else {
                     if(chars.has(3)) {
                         if (chars.get(3) == '\'') {
-                            if (peek("\'", "\\\\", "[bnrtf\'\"\\\\]", "\'")) {
+                            if (peekChar(0, '\'') && peekChar(1, '\\') && peekClass(2, ESCAPE) && peekChar(3, '\'')) {
                                 advanceN(4);
-                                return chars.emit(Token.Type.CHARACTER);
+                                return Token.Type.CHARACTER;
                             } else {
                                 throw new ParseException("invalid escape character", chars.index + 1);
                             }
@@ -126,18 +554,22 @@ public final class Lexer {
     }
 
     public Token lexString() {
+        return emit(scanString());
+    }
+
+    private Token.Type scanString() {
         chars.advance();
-        while(!peek("\"") && chars.has(0)) {
-            if(peek("\n|\r")) throw new ParseException("language does not support multi line string definitions, use escape characters", chars.index);
-            if(peek("\\\\")) {
-                if(!peek("\\\\", "[bnrtf\'\"\\\\]|000B")) throw new ParseException("invalid escape character", chars.index+1);
+        while(!peekChar(0, '"') && chars.has(0)) {
+            if(peekChar(0, '\n') || peekChar(0, '\r')) throw new ParseException("language does not support multi line string definitions, use escape characters", chars.index);
+            if(peekChar(0, '\\')) {
+                if(!peekClass(1, ESCAPE)) throw new ParseException("invalid escape character", chars.index+1);
                 chars.advance();
             }
             chars.advance();
         }
         if(chars.has(0)) {
             chars.advance();
-            return chars.emit(Token.Type.STRING);
+            return Token.Type.STRING;
         } else {
             throw new ParseException("never ended the string literal with a double quote", chars.index);
         }
@@ -148,17 +580,33 @@ public final class Lexer {
         chars.skip();
     }
 
+    /**
+     * Skips over a run of whitespace in a single loop, so the stack depth of
+     * the lexer does not depend on the length of the run. Each character is
+     * skipped as it is passed, so a reader's buffer does not have to retain
+     * the run.
+     */
+    public void lexWhitespace() {
+        while(peekClass(0, WHITESPACE)) {
+            chars.advance();
+            chars.skip();
+        }
+    }
+
     public Token lexOperator() {
-        if(peek("\\s") || peek("\b") || !chars.has(0)) {
+        return emit(scanOperator());
+    }
+
+    private Token.Type scanOperator() {
+        if(peekClass(0, WHITESPACE) || !chars.has(0)) {
             lexEscape();
-            System.out.println("hey");
-            return lexToken();
+            return scanToken();
         }
-        if(peek("[<>!=]","="))
+        if(peekClass(0, COMPARISON) && peekChar(1, '='))
             chars.advance();
 
-        if(!peek("\\s")) chars.advance();
-        return chars.emit(Token.Type.OPERATOR);
+        if(!peekClass(0, WHITESPACE)) chars.advance();
+        return Token.Type.OPERATOR;
     }
 
     private void advanceN(int n) {
@@ -167,6 +615,26 @@ public final class Lexer {
         }
     }
 
+    /**
+     * Returns true if the character at the given offset is exactly {@code c}.
+     * This and {@link #peekClass(int, int)} are the table-driven equivalents
+     * of {@link #peek(String...)} used by the lex methods, which avoids
+     * compiling a regex and allocating a string for every character.
+     */
+    private boolean peekChar(int offset, char c) {
+        return chars.has(offset) && chars.get(offset) == c;
+    }
+
+    /**
+     * Returns true if the character at the given offset belongs to the given
+     * character class (one of the bit flags in {@link #CLASSES}).
+     */
+    private boolean peekClass(int offset, int cls) {
+        if(!chars.has(offset)) return false;
+        char c = chars.get(offset);
+        return c < CLASSES.length && (CLASSES[c] & cls) != 0;
+    }
+
     /**
      * Returns true if the next sequence of characters match the given patterns,
      * which should be a regex. For example, {@code peek("a", "b", "c")} would
@@ -198,6 +666,54 @@ public final class Lexer {
         return peek;
     }
 
+    /**
+     * A read-only view of ASCII bytes, such as a memory mapped file, as a
+     * {@link CharSequence} without decoding or copying them.
+     */
+    private static final class MappedInput implements CharSequence {
+
+        private final ByteBuffer bytes;
+
+        private MappedInput(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        private static boolean isAscii(ByteBuffer bytes) {
+            for (int i = bytes.position(); i < bytes.limit(); i++) {
+                if (bytes.get(i) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            ByteBuffer slice = bytes.duplicate();
+            slice.position(start);
+            slice.limit(end);
+            return new MappedInput(slice.slice());
+        }
+
+        @Override
+        public String toString() {
+            byte[] copy = new byte[bytes.limit()];
+            bytes.duplicate().get(copy);
+            return new String(copy, StandardCharsets.US_ASCII);
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -205,23 +721,65 @@ public final class Lexer {
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
+     *
+     * When created from a {@link Reader}, characters are read into a buffer
+     * which only retains the token currently being matched and the lookahead
+     * past it. The buffer grows only when a single token does not fit.
      */
     public static final class CharStream {
 
-        private final String input;
+        private static final int BUFFER_SIZE = 8192;
+
+        private final CharSequence input;
+        private final int limit;
+        private final Reader reader;
+        private final LineIndex lines;
+        private char[] buffer;
+        private int bufferStart = 0;
+        private int bufferEnd = 0;
+        private boolean eof = false;
         private int index = 0;
         private int length = 0;
 
-        public CharStream(String input) {
+        public CharStream(CharSequence input) {
+            this(input, 0, input.length());
+        }
+
+        /**
+         * Creates a stream over the characters of {@code input} from {@code
+         * start} to {@code end}. Indices remain relative to the whole input.
+         */
+        public CharStream(CharSequence input, int start, int end) {
             this.input = input;
+            this.limit = end;
+            this.reader = null;
+            this.lines = null;
+            this.index = start;
+        }
+
+        public CharStream(Reader reader) {
+            this.input = null;
+            this.limit = 0;
+            this.reader = reader;
+            this.lines = new LineIndex();
+            this.buffer = new char[BUFFER_SIZE];
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if (input != null) {
+                return index + offset < limit;
+            }
+            return index + offset < bufferEnd || fill(index + offset + 1);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if (input != null) {
+                return input.charAt(index + offset);
+            }
+            if (!has(offset)) {
+                throw new IndexOutOfBoundsException("index " + (index + offset) + " is past the end of the input");
+            }
+            return buffer[index + offset - bufferStart];
         }
 
         public void advance() {
@@ -236,7 +794,67 @@ public final class Lexer {
         public Token emit(Token.Type type) {
             int start = index - length;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            if (input != null) {
+                return new Token(type, input, start, index - start, null, SymbolTable.NONE);
+            }
+            return new Token(type, null, start, index - start, new String(buffer, start - bufferStart, index - start), SymbolTable.NONE);
+        }
+
+        /**
+         * Emits an identifier or operator token, interning its literal into
+         * the given symbol table.
+         */
+        public Token emit(Token.Type type, SymbolTable symbols) {
+            int start = index - length;
+            skip();
+            if (input != null) {
+                return new Token(type, input, start, index - start, null, symbols.intern(input, start, index));
+            }
+            String literal = new String(buffer, start - bufferStart, index - start);
+            return new Token(type, null, start, index - start, literal, symbols.intern(literal));
+        }
+
+        /**
+         * Reads from the reader until the buffer holds characters up to (but
+         * not including) the absolute index {@code target}, returning false if
+         * the input ends first. Characters before the token being matched are
+         * discarded to make room before the buffer is grown.
+         */
+        private boolean fill(int target) {
+            if (eof) {
+                return false;
+            }
+            try {
+                while (bufferEnd < target) {
+                    if (bufferEnd - bufferStart == buffer.length) {
+                        int keep = index - length;
+                        if (keep > bufferStart) {
+                            System.arraycopy(buffer, keep - bufferStart, buffer, 0, bufferEnd - keep);
+                            bufferStart = keep;
+                            lines.discardBefore(keep);
+                        } else {
+                            char[] grown = new char[buffer.length * 2];
+                            System.arraycopy(buffer, 0, grown, 0, bufferEnd - bufferStart);
+                            buffer = grown;
+                        }
+                        continue;
+                    }
+                    int read = reader.read(buffer, bufferEnd - bufferStart, buffer.length - (bufferEnd - bufferStart));
+                    if (read < 0) {
+                        eof = true;
+                        return false;
+                    }
+                    for (int i = bufferEnd; i < bufferEnd + read; i++) {
+                        if (buffer[i - bufferStart] == '\n') {
+                            lines.addLineStart(i + 1);
+                        }
+                    }
+                    bufferEnd += read;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
 
     }
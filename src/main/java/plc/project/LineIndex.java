@@ -0,0 +1,119 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A table of the offsets at which each line of a source starts, used to
+ * convert the character indices of {@link Token}s and {@link ParseException}s
+ * into lines and columns. The table is built in one pass over the source the
+ * first time it is needed and lookups are a binary search, so converting many
+ * indices stays cheap.
+ *
+ * Lines are separated by {@code '\n'}, and both lines and columns start at 1.
+ *
+ * An index built while a source is read can discard the lines before a
+ * given index with {@link #discardBefore(int)}, keeping only a count of
+ * them, so its size is bounded by the part of the source still in memory.
+ */
+public final class LineIndex {
+
+    private CharSequence source = null;
+    private int[] starts = new int[16];
+    private int count = 1;
+    private int discarded = 0;
+
+    /**
+     * Creates an index containing only the first line, which can be extended
+     * with {@link #addLineStart(int)} as a source is read.
+     */
+    LineIndex() {}
+
+    /**
+     * Creates an index of the given source, which is scanned on the first
+     * lookup.
+     */
+    public static LineIndex of(CharSequence source) {
+        LineIndex lines = new LineIndex();
+        lines.source = source;
+        return lines;
+    }
+
+    private void build() {
+        if (source != null) {
+            for (int i = 0; i < source.length(); i++) {
+                if (source.charAt(i) == '\n') {
+                    addLineStart(i + 1);
+                }
+            }
+            source = null;
+        }
+    }
+
+    /**
+     * Records that a line starts at the given index, which must be after all
+     * previously added lines.
+     */
+    void addLineStart(int index) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = index;
+    }
+
+    /**
+     * Discards the starts of the lines before the one containing the given
+     * index, which can no longer be looked up. Lines keep their numbers.
+     */
+    void discardBefore(int index) {
+        int line = getLine(index) - discarded - 1;
+        if (line > 0) {
+            System.arraycopy(starts, line, starts, 0, count - line);
+            count -= line;
+            discarded += line;
+        }
+    }
+
+    public int getLineCount() {
+        build();
+        return discarded + count;
+    }
+
+    /**
+     * Returns the index of the first character of the given line.
+     */
+    public int getLineStart(int line) {
+        build();
+        if (line <= discarded || line > discarded + count) {
+            throw new IllegalArgumentException("Line " + line + " is out of range.");
+        }
+        return starts[line - discarded - 1];
+    }
+
+    /**
+     * Returns the line containing the character at the given index.
+     */
+    public int getLine(int index) {
+        build();
+        if (index < starts[0]) {
+            throw new IllegalArgumentException("Index " + index + " is before the lines kept in the index.");
+        }
+        int low = 0, high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return discarded + low + 1;
+    }
+
+    /**
+     * Returns the column of the character at the given index within its line.
+     */
+    public int getColumn(int index) {
+        return index - starts[getLine(index) - discarded - 1] + 1;
+    }
+
+}
@@ -0,0 +1,104 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates the values of literal expressions within a compilation, so a
+ * literal which appears many times (as is common in generated code) is
+ * unescaped or converted to a number once and every {@link Ast.Expr.Literal}
+ * shares the same immutable value. Values are keyed by the literal's source
+ * text, including quotes and escapes.
+ *
+ * Pools are thread safe, so the parsers of a single compilation can share one
+ * while parsing concurrently (see {@link Parser#parseSourceParallel()}).
+ */
+public final class LiteralPool {
+
+    private final ConcurrentHashMap<String, BigInteger> integers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BigDecimal> decimals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Character> characters = new ConcurrentHashMap<>();
+
+    public BigInteger getInteger(String literal) {
+        return integers.computeIfAbsent(literal, BigInteger::new);
+    }
+
+    public BigDecimal getDecimal(String literal) {
+        return decimals.computeIfAbsent(literal, BigDecimal::new);
+    }
+
+    /**
+     * Returns the value of a string literal, such as {@code "\"a\\n\""},
+     * with the quotes removed and escapes replaced.
+     */
+    public String getString(String literal) {
+        return strings.computeIfAbsent(literal, l -> unescape(l, 1, l.length() - 1));
+    }
+
+    /**
+     * Returns the value of a character literal, such as {@code "'\\n'"}.
+     */
+    public Character getCharacter(String literal) {
+        return characters.computeIfAbsent(literal, l -> unescape(l, 1, l.length() - 1).charAt(0));
+    }
+
+    /**
+     * Returns the number of distinct literals in the pool.
+     */
+    public int size() {
+        return integers.size() + decimals.size() + strings.size() + characters.size();
+    }
+
+    /**
+     * Replaces the escape sequences in the characters of {@code literal}
+     * from {@code start} to {@code end} in a single pass. Each backslash
+     * escapes exactly the character following it, so {@code \\n} is a
+     * backslash followed by {@code n}. Sequences the lexer does not accept
+     * are left as they are.
+     */
+    public static String unescape(CharSequence literal, int start, int end) {
+        int escape = start;
+        while (escape < end && literal.charAt(escape) != '\\') {
+            escape++;
+        }
+        if (escape == end) {
+            return literal.subSequence(start, end).toString();
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(literal, start, escape);
+        for (int i = escape; i < end; i++) {
+            char c = literal.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char replacement = unescape(literal.charAt(i + 1));
+                if (replacement != 0) {
+                    builder.append(replacement);
+                    i++;
+                    continue;
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the character an escape sequence represents, or {@code 0} if
+     * it is not a valid escape.
+     */
+    private static char unescape(char c) {
+        switch (c) {
+            case 'b': return '\b';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'f': return '\f';
+            case '\'': return '\'';
+            case '"': return '"';
+            case '\\': return '\\';
+            default: return 0;
+        }
+    }
+
+}
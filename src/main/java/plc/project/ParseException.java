@@ -3,6 +3,7 @@ package plc.project;
 public final class ParseException extends RuntimeException {
 
     private final int index;
+    private LineIndex lines = null;
 
     public ParseException(String message, int index) {
         super(message);
@@ -13,4 +14,27 @@ public final class ParseException extends RuntimeException {
         return index;
     }
 
+    /**
+     * Returns the line of {@link #getIndex()}, which requires the line index
+     * of the source to have been attached by the lexer or parser.
+     */
+    public int getLine() {
+        return getLines().getLine(index);
+    }
+
+    public int getColumn() {
+        return getLines().getColumn(index);
+    }
+
+    public LineIndex getLines() {
+        if (lines == null) {
+            throw new IllegalStateException("lines are uninitialized");
+        }
+        return lines;
+    }
+
+    public void setLines(LineIndex lines) {
+        this.lines = lines;
+    }
+
 }
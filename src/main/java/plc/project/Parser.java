@@ -1,11 +1,15 @@
 package plc.project;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -14,40 +18,306 @@ import java.util.Optional;
  *
  * The parser has a similar architecture to the lexer, just with {@link Token}s
  * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * #match(Object...)} are helpers to make the implementation easier, with
+ * overloads for single tokens and pairs that the rules use on the hot path.
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
- * to calling that functions.
+ * to calling that functions. The exceptions are nested blocks and nested
+ * expressions, which are parsed with explicit stacks (see {@link
+ * #parseBlocks(int)} and {@link #parseExpression(int, int)}) so that deeply
+ * nested input cannot overflow the Java stack.
  */
 public final class Parser {
 
+    private static final int LOGICAL = 1, EQUALITY = 2, ADDITIVE = 3, MULTIPLICATIVE = 4;
+
+    /**
+     * The kinds of frames on the expression stack, where {@code PRIMARY} is
+     * only used as a rule.
+     */
+    private static final int PRIMARY = 0, SECONDARY = 1, GROUP = 2, CALL = 3, BINARY = 4;
+
+    /**
+     * The binding power of each binary operator, indexed by its reserved
+     * {@link SymbolTable} id. Higher powers bind more tightly.
+     */
+    private static final int[] BINDING_POWERS = new int[SymbolTable.RESERVED_COUNT];
+
+    static {
+        BINDING_POWERS[SymbolTable.AND] = LOGICAL;
+        BINDING_POWERS[SymbolTable.OR] = LOGICAL;
+        BINDING_POWERS[SymbolTable.LESS] = EQUALITY;
+        BINDING_POWERS[SymbolTable.LESS_EQUAL] = EQUALITY;
+        BINDING_POWERS[SymbolTable.GREATER] = EQUALITY;
+        BINDING_POWERS[SymbolTable.GREATER_EQUAL] = EQUALITY;
+        BINDING_POWERS[SymbolTable.EQUAL] = EQUALITY;
+        BINDING_POWERS[SymbolTable.NOT_EQUAL] = EQUALITY;
+        BINDING_POWERS[SymbolTable.PLUS] = ADDITIVE;
+        BINDING_POWERS[SymbolTable.MINUS] = ADDITIVE;
+        BINDING_POWERS[SymbolTable.MULTIPLY] = MULTIPLICATIVE;
+        BINDING_POWERS[SymbolTable.DIVIDE] = MULTIPLICATIVE;
+    }
+
+    /**
+     * The minimum number of tokens in a chunk of methods parsed by {@link
+     * #parseSourceParallel(ForkJoinPool)}, below which splitting is not
+     * worthwhile.
+     */
+    private static final int MIN_CHUNK = 1 << 12;
+
     private final TokenStream tokens;
+    private final List<Token> list;
+    private LineIndex lines = null;
+    private LiteralPool literals = new LiteralPool();
+    private AstFactory factory = null;
+    private boolean spans = true;
+    private boolean recovering = false;
+    private final List<ParseException> diagnostics = new ArrayList<>();
+    private Frame[] frames = new Frame[16];
+    private int depth = 0;
 
+    /**
+     * Creates a parser over a list of tokens. If the list is a {@link
+     * TokenBuffer}, the parser reads the types, symbols and positions of the
+     * tokens straight out of its arrays, so no {@link Token}s are created.
+     */
     public Parser(List<Token> tokens) {
+        this(tokens, 0, tokens.size());
+    }
+
+    /**
+     * Creates a parser over the tokens of the list from {@code from} to {@code
+     * to}, which reads a {@link TokenBuffer} in place rather than through a
+     * {@link List#subList(int, int)} view.
+     */
+    private Parser(List<Token> tokens, int from, int to) {
+        this.tokens = tokens instanceof TokenBuffer
+                ? new TokenStream((TokenBuffer) tokens, from, to)
+                : new TokenStream(tokens.subList(from, to).iterator());
+        this.list = from == 0 && to == tokens.size() ? tokens : tokens.subList(from, to);
+    }
+
+    /**
+     * Creates a parser pulling tokens from the given iterator as they are
+     * needed, such as {@link Lexer#tokens()}. Only the current lookahead and
+     * the previous token are held by the parser.
+     */
+    public Parser(Iterator<Token> tokens) {
         this.tokens = new TokenStream(tokens);
+        this.list = null;
+    }
+
+    /**
+     * Sets the line index of the source the tokens were lexed from, such as
+     * {@link Lexer#getLineIndex()}, which is attached to any {@link
+     * ParseException} thrown so it can report a line and column.
+     */
+    public void setLineIndex(LineIndex lines) {
+        this.lines = lines;
+    }
+
+    public LiteralPool getLiteralPool() {
+        return literals;
+    }
+
+    /**
+     * Sets the pool the values of literal expressions are shared through,
+     * which allows several parsers of one compilation to share a pool.
+     */
+    public void setLiteralPool(LiteralPool literals) {
+        this.literals = literals;
+    }
+
+    public AstFactory getAstFactory() {
+        return factory;
+    }
+
+    /**
+     * Sets the factory which literal, group and binary expressions are
+     * created through, which shares identical expressions within and across
+     * the parsers using it, or {@code null} (the default) to create every
+     * expression anew. A shared expression has no single position in the
+     * source, so the factory is only used when spans are not recorded (see
+     * {@link #setSpans(boolean)}).
+     */
+    public void setAstFactory(AstFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Sets whether the parser records the source span of each node (see
+     * {@link Ast#getStart()}), which it does by default. Turning spans off
+     * allows expressions to be shared by the {@link AstFactory}, if one is
+     * set; the nodes then all have a span of {@code -1}.
+     */
+    public void setSpans(boolean spans) {
+        this.spans = spans;
+    }
+
+    /**
+     * Sets whether the parser recovers from syntax errors. When recovering,
+     * {@link #parseSource()} reports every error in one pass instead of
+     * throwing the first: each error is added to {@link #getDiagnostics()}
+     * and parsing resynchronizes at the next {@code ;}, {@code END}, {@code
+     * DEF}, {@code LET} or {@code ELSE}.
+     *
+     * A statement which fails to parse is replaced by an {@link
+     * Ast.Stmt.Error} in the partial tree, a method missing its final {@code
+     * END} is kept, and a field or method whose header fails to parse is
+     * skipped up to the next {@code LET} or {@code DEF}. A method (and any
+     * block within it) also ends at a {@code DEF} followed by a name,
+     * reporting its missing {@code END}, so a method which is not closed
+     * does not take in the methods after it. Otherwise, since recovery only
+     * starts at an error, the first diagnostic is the exception {@link
+     * #parseSource()} would throw when not recovering.
+     */
+    public void setRecovering(boolean recovering) {
+        this.recovering = recovering;
+    }
+
+    /**
+     * Returns the errors found while recovering, in source order.
+     */
+    public List<ParseException> getDiagnostics() {
+        return diagnostics;
     }
 
     /**
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
+        if(recovering) return parseSourceRecovering();
+        int start = offset();
+        List<Ast.Field> fields = parseFields();
+        return span(new Ast.Source(fields, parseMethods()), start);
+    }
+
+    private Ast.Source parseSourceRecovering() {
+        int offset = offset();
         ArrayList<Ast.Field> fields = new ArrayList<Ast.Field>();
         ArrayList<Ast.Method> methods = new ArrayList<Ast.Method>();
 
+        boolean inMethods = false;
+        while(tokens.has(0)) {
+            int start = tokens.position;
+            inMethods |= peek(SymbolTable.DEF);
+            try {
+                if(peek(SymbolTable.LET) && !inMethods) {
+                    fields.add(parseField());
+                } else if(peek(SymbolTable.DEF)) {
+                    methods.add(parseMethod());
+                } else {
+                    exceptionHelper("Expected field or method");
+                }
+            } catch(ParseException e) {
+                diagnostics.add(e);
+                if(tokens.position == start) {
+                    tokens.advance();
+                }
+                while(tokens.has(0) && !peek(SymbolTable.DEF) && !(peek(SymbolTable.LET) && !inMethods)) {
+                    tokens.advance();
+                }
+            }
+        }
+        return span(new Ast.Source(fields, methods), offset);
+    }
+
+    /**
+     * Parses the {@code source} rule in the same way as {@link
+     * #parseSource()}, parsing methods concurrently on the common fork/join
+     * pool. See {@link #parseSourceParallel(ForkJoinPool)}.
+     */
+    public Ast.Source parseSourceParallel() throws ParseException {
+        return parseSourceParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the {@code source} rule in the same way as {@link
+     * #parseSource()}, but splits the methods into chunks which are parsed
+     * concurrently on the given pool. This requires the parser to have been
+     * created from a list of tokens.
+     *
+     * Fields are parsed first, as usual. The method boundaries are then found
+     * by a scan of the remaining tokens which matches each {@code DEF}, {@code
+     * IF}, {@code FOR} and {@code WHILE} with its {@code END}. Each chunk is
+     * parsed by its own parser, which must consume every token of the chunk.
+     * Since the parser never looks past the {@code END} of a method, a chunk
+     * parsed this way yields exactly the methods sequential parsing would. If
+     * the scan does not find whole methods or any chunk fails, the methods
+     * are parsed sequentially so the same exception as {@link #parseSource()}
+     * is thrown. The literal pool is shared by all chunks. When recovering,
+     * the source is parsed sequentially.
+     */
+    public Ast.Source parseSourceParallel(ForkJoinPool pool) throws ParseException {
+        if(list == null) throw new IllegalStateException("Parallel parsing requires a list of tokens.");
+        if(recovering) return parseSourceRecovering();
+        int offset = offset();
+        List<Ast.Field> fields = parseFields();
+
+        int start = tokens.position;
+        List<Integer> ends = findEntryEnds(list, start);
+        int chunkSize = Math.max(MIN_CHUNK, (list.size() - start) / (pool.getParallelism() * 4));
+
+        ArrayList<int[]> chunks = new ArrayList<>();
+        if(ends != null) {
+            int from = start;
+            for(int end : ends) {
+                if(end - from >= chunkSize || end == list.size()) {
+                    chunks.add(new int[] {from, end});
+                    from = end;
+                }
+            }
+        }
+        if(chunks.size() < 2) return span(new Ast.Source(fields, parseMethods()), offset);
+
+        ArrayList<ForkJoinTask<List<Ast.Method>>> tasks = new ArrayList<>();
+        for(int[] chunk : chunks) {
+            Parser parser = new Parser(list, chunk[0], chunk[1]);
+            parser.setLineIndex(lines);
+            parser.setLiteralPool(literals);
+            parser.setAstFactory(factory);
+            parser.setSpans(spans);
+            tasks.add(pool.submit(parser::parseMethods));
+        }
+
+        ArrayList<Ast.Method> methods = new ArrayList<>();
+        try {
+            for(ForkJoinTask<List<Ast.Method>> task : tasks) {
+                methods.addAll(task.join());
+            }
+        } catch(RuntimeException e) {
+            for(ForkJoinTask<List<Ast.Method>> task : tasks) {
+                task.cancel(false);
+            }
+            return span(new Ast.Source(fields, parseMethods()), offset);
+        }
+
+        tokens.finish(list);
+        return span(new Ast.Source(fields, methods), offset);
+    }
+
+    private List<Ast.Field> parseFields() throws ParseException {
+        ArrayList<Ast.Field> fields = new ArrayList<Ast.Field>();
+
         boolean flag = true;
         while(flag) {
-            if(peek("LET")) {
+            if(peek(SymbolTable.LET)) {
                 Ast.Field field = parseField();
                 fields.add(field);
             } else {
                 flag = false;
             }
         }
+        return fields;
+    }
 
-        flag = true;
+    private List<Ast.Method> parseMethods() throws ParseException {
+        ArrayList<Ast.Method> methods = new ArrayList<Ast.Method>();
+
+        boolean flag = true;
         while(flag) {
-            if (peek("DEF")) {
+            if (peek(SymbolTable.DEF)) {
                 Ast.Method method = parseMethod();
                 methods.add(method);
             } else if (tokens.has(0)){
@@ -56,8 +326,155 @@ public final class Parser {
                 flag = false;
             }
         }
+        return methods;
+    }
+
+    /**
+     * Reparses the source after an edit replacing {@code removed} tokens of
+     * {@code previousTokens} at {@code start} with the {@code inserted} tokens
+     * of {@code tokens} at the same position, in the same way as {@link
+     * #reparse(Ast.Source, List, int, int, int)} on a parser over {@code
+     * tokens} with the default settings.
+     */
+    public static Ast.Source reparse(Ast.Source previous, List<Token> previousTokens, List<Token> tokens, int start, int removed, int inserted) throws ParseException {
+        return new Parser(tokens).reparse(previous, previousTokens, start, removed, inserted);
+    }
+
+    /**
+     * Reparses the source after an edit replacing {@code removed} tokens of
+     * {@code previousTokens} at {@code start} with the {@code inserted} tokens
+     * of this parser's tokens at the same position, returning the same tree
+     * as {@link #parseSource()}. The previous tree must be the result of
+     * parsing {@code previousTokens}. This requires the parser to have been
+     * created from a list of tokens, and the tokens which are parsed again
+     * share its line index, literal pool and AST factory.
+     *
+     * The fields and methods of the previous tree are matched to their tokens
+     * by the same scan as {@link #parseSourceParallel(ForkJoinPool)}. Only
+     * the entries overlapping or adjacent to the edit are parsed again, and
+     * all other {@link Ast.Field} and {@link Ast.Method} objects are reused,
+     * so caches keyed on their identity stay valid. The reused entries are
+     * moved into the new tree rather than copied: the spans of those after
+     * the edit are shifted in place by the change in length of the source,
+     * so the previous tree (which shares them) no longer has the spans of the
+     * previous source and should not be used for locations afterwards. If
+     * the entries cannot be matched or the reparsed tokens do not form whole
+     * entries, the source is parsed in full (which throws the same exception
+     * as {@link #parseSource()} for invalid sources). When recovering, the
+     * source is always parsed in full.
+     */
+    public Ast.Source reparse(Ast.Source previous, List<Token> previousTokens, int start, int removed, int inserted) throws ParseException {
+        if(list == null) throw new IllegalStateException("Reparsing requires a list of tokens.");
+        if(start < 0 || removed < 0 || inserted < 0 || start + removed > previousTokens.size()
+                || previousTokens.size() - removed + inserted != list.size()) {
+            throw new IllegalArgumentException("Edit is out of range of the tokens.");
+        }
+        if(recovering) return parseSource();
+        List<Ast.Field> fields = previous.getFields();
+        List<Ast.Method> methods = previous.getMethods();
+        List<Integer> ends = findEntryEnds(previousTokens, 0);
+        if(ends == null || ends.isEmpty() || ends.size() != fields.size() + methods.size()) {
+            return parseSource();
+        }
+
+        // Entries [first, last) end at or after the edit and start at or before its end.
+        int first = 0;
+        while(first < ends.size() - 1 && ends.get(first) < start) {
+            first++;
+        }
+        int last = first + 1;
+        while(last < ends.size() && ends.get(last - 1) <= start + removed) {
+            last++;
+        }
+        int from = first == 0 ? 0 : ends.get(first - 1);
+        int to = ends.get(last - 1) + inserted - removed;
+
+        Parser parser = new Parser(list, from, to);
+        parser.setLineIndex(lines);
+        parser.setLiteralPool(literals);
+        parser.setAstFactory(factory);
+        parser.setSpans(spans);
+        List<Ast.Field> newFields;
+        List<Ast.Method> newMethods;
+        try {
+            newFields = parser.parseFields();
+            newMethods = parser.parseMethods();
+        } catch(ParseException e) {
+            return parseSource();
+        }
+        if((!newFields.isEmpty() && first > fields.size()) || (!newMethods.isEmpty() && last < fields.size())) {
+            return parseSource();
+        }
+
+        List<Ast.Field> fieldsAfter = fields.subList(Math.min(last, fields.size()), fields.size());
+        List<Ast.Method> methodsAfter = methods.subList(Math.max(last - fields.size(), 0), methods.size());
+        if(to < list.size()) {
+            int offset = previousTokens.get(to - inserted + removed).getIndex();
+            int delta = list.get(to).getIndex() - offset;
+            if(delta != 0) {
+                SpanShifter shifter = new SpanShifter(offset, delta);
+                fieldsAfter.forEach(shifter::shift);
+                methodsAfter.forEach(shifter::shift);
+            }
+        }
+
+        ArrayList<Ast.Field> resultFields = new ArrayList<>(fields.subList(0, Math.min(first, fields.size())));
+        resultFields.addAll(newFields);
+        resultFields.addAll(fieldsAfter);
+        ArrayList<Ast.Method> resultMethods = new ArrayList<>(methods.subList(0, Math.max(first - fields.size(), 0)));
+        resultMethods.addAll(newMethods);
+        resultMethods.addAll(methodsAfter);
+        Ast.Source source = new Ast.Source(resultFields, resultMethods);
+        if(!list.isEmpty()) {
+            Token end = list.get(list.size() - 1);
+            if(spans) source.setSpan(list.get(0).getIndex(), end.getIndex() + end.getLength());
+            tokens.finish(list);
+        } else if(spans) {
+            source.setSpan(0, 0);
+        }
+        return source;
+    }
 
-        return new Ast.Source(fields, methods);
+    /**
+     * Returns the index after the last token of each field and method
+     * starting at {@code start}, or {@code null} if the tokens are not a
+     * sequence of {@code LET ... ;} fields and balanced {@code DEF ... END}
+     * methods. Fields end at their first {@code ;}, since expressions cannot
+     * contain one.
+     */
+    private static List<Integer> findEntryEnds(List<Token> tokens, int start) {
+        TokenBuffer buffer = tokens instanceof TokenBuffer ? (TokenBuffer) tokens : null;
+        ArrayList<Integer> ends = new ArrayList<>();
+        int depth = 0;
+        boolean field = false;
+        for(int i = start; i < tokens.size(); i++) {
+            int symbol = buffer != null ? buffer.symbolAt(i) : tokens.get(i).getSymbol();
+            if(field) {
+                if(symbol == SymbolTable.SEMICOLON) {
+                    ends.add(i + 1);
+                    field = false;
+                }
+                continue;
+            }
+            switch(symbol) {
+                case SymbolTable.LET:
+                    if(depth == 0) field = true;
+                    break;
+                case SymbolTable.DEF:
+                case SymbolTable.IF:
+                case SymbolTable.FOR:
+                case SymbolTable.WHILE:
+                    depth++;
+                    break;
+                case SymbolTable.END:
+                    if(--depth < 0) return null;
+                    if(depth == 0) ends.add(i + 1);
+                    break;
+                default:
+                    if(depth == 0) return null;
+            }
+        }
+        return depth == 0 && !field ? ends : null;
     }
 
     /**
@@ -66,26 +483,27 @@ public final class Parser {
      */
     public Ast.Field parseField() throws ParseException {
         // 'LET' identifier ':' identifier ('=' expression)? ';'
-        match("LET");
+        int start = offset();
+        match(SymbolTable.LET);
 
         if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
-        String name = tokens.get(-1).getLiteral();
+        String name = tokens.literalAt(-1);
 
-        if(!match(":")) exceptionHelper("Expected Colon.");
+        if(!match(SymbolTable.COLON)) exceptionHelper("Expected Colon.");
 
         if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Type Name.");
-        String type = tokens.get(-1).getLiteral();
+        String type = tokens.literalAt(-1);
 
         Optional<Ast.Expr> value = Optional.empty();
 
-        if(match("=")) {
+        if(match(SymbolTable.ASSIGN)) {
             Ast.Expr expr = parseExpression();
             value = Optional.of(expr);
         }
 
-        if(!match(";")) exceptionHelper("Missing semicolon");
+        if(!match(SymbolTable.SEMICOLON)) exceptionHelper("Missing semicolon");
 
-        return new Ast.Field(name, type, value);
+        return span(new Ast.Field(name, type, value), start);
     }
 
     /**
@@ -95,58 +513,62 @@ public final class Parser {
     public Ast.Method parseMethod() throws ParseException {
         // 'DEF' identifier '(' (identifier ':' identifier (',' identifier ':' identifier)*)? ')' (':' identifier)? 'DO' statement* 'END'
 
-        match("DEF");
+        int start = offset();
+        match(SymbolTable.DEF);
 
         if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
-        String name = tokens.get(-1).getLiteral();
+        String name = tokens.literalAt(-1);
 
-        if(!match("(")) exceptionHelper("Missing opening parenthesis.");
+        if(!match(SymbolTable.LEFT_PAREN)) exceptionHelper("Missing opening parenthesis.");
 
         ArrayList<String> params = new ArrayList<String>();
         ArrayList<String> paramTypes = new ArrayList<String>();
 
         if(match(Token.Type.IDENTIFIER)) {
-            params.add(tokens.get(-1).getLiteral());
-            if(!match(":")) exceptionHelper("Expected colon.");
+            params.add(tokens.literalAt(-1));
+            if(!match(SymbolTable.COLON)) exceptionHelper("Expected colon.");
             if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Type Name");
-            paramTypes.add(tokens.get(-1).getLiteral());
-            while(match(",")) {
+            paramTypes.add(tokens.literalAt(-1));
+            while(match(SymbolTable.COMMA)) {
                 if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
-                params.add(tokens.get(-1).getLiteral());
-                if(!match(":")) exceptionHelper("Expected colon.");
+                params.add(tokens.literalAt(-1));
+                if(!match(SymbolTable.COLON)) exceptionHelper("Expected colon.");
                 if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Type Name");
-                paramTypes.add(tokens.get(-1).getLiteral());
+                paramTypes.add(tokens.literalAt(-1));
             }
         }
 
-        if(!match(")")) exceptionHelper("Missing closing parenthesis");
+        if(!match(SymbolTable.RIGHT_PAREN)) exceptionHelper("Missing closing parenthesis");
 
         String returnType = null;
-        if(match(":")) {
+        if(match(SymbolTable.COLON)) {
             if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Return Type Name.");
-            returnType = tokens.get(-1).getLiteral();
+            returnType = tokens.literalAt(-1);
         }
 
-        if(!match("DO")) exceptionHelper("Missing DO keyword");
+        if(!match(SymbolTable.DO)) exceptionHelper("Missing DO keyword");
 
         ArrayList<Ast.Stmt> statements = new ArrayList<Ast.Stmt>();
         boolean flag = true;
 
         while(flag) {
-            if(peek("END") || !tokens.has(0)) {
+            if(peek(SymbolTable.END) || !tokens.has(0) || peekMethod()) {
                 flag = false;
             } else {
-                Ast.Stmt stmt = parseStatement();
+                Ast.Stmt stmt = parseBlockStatement();
                 statements.add(stmt);
             }
         }
 
-        if(!match("END")) exceptionHelper("Expected END keyword.");
+        if(!match(SymbolTable.END)) {
+            if(!recovering) exceptionHelper("Expected END keyword.");
+            diagnostics.add(exception("Expected END keyword."));
+        }
 
         Optional<String> type = Optional.empty();
         if(returnType != null)
             type = Optional.of(returnType);
-        return new Ast.Method(name, params, paramTypes, type, statements);
+        return span(new Ast.Method(name, params, paramTypes, type, statements), start);
     }
 
     /**
@@ -155,33 +577,45 @@ public final class Parser {
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Stmt parseStatement() throws ParseException {
-        if(peek("LET")) {
-            return parseDeclarationStatement();
-        } else if(peek("IF")) {
-            return parseIfStatement();
-        } else if(peek("FOR")) {
-            return parseForStatement();
-        } else if(peek("WHILE")) {
-            return parseWhileStatement();
-        } else if(peek("RETURN")) {
-            return parseReturnStatement();
-        } else {
-            Ast.Expr expr = parseExpression();
-            if(match("=")) {
-                Ast.Expr expr2 = parseExpression();
-                if(match(";"))
-                    return new Ast.Stmt.Assignment(expr, expr2);
+        int symbol = tokens.has(0) ? tokens.symbolAt(0) : SymbolTable.NONE;
+        switch(symbol) {
+            case SymbolTable.IF:
+            case SymbolTable.FOR:
+            case SymbolTable.WHILE:
+                return parseBlocks(symbol);
+            default:
+                return parseSimpleStatement();
+        }
+    }
+
+    /**
+     * Parses a statement which does not contain a block, which is any
+     * statement but an if, for or while statement.
+     */
+    private Ast.Stmt parseSimpleStatement() throws ParseException {
+        int start = offset();
+        switch(tokens.has(0) ? tokens.symbolAt(0) : SymbolTable.NONE) {
+            case SymbolTable.LET:
+                return parseDeclarationStatement();
+            case SymbolTable.RETURN:
+                return parseReturnStatement();
+            default:
+                Ast.Expr expr = parseExpression();
+                if(match(SymbolTable.ASSIGN)) {
+                    Ast.Expr expr2 = parseExpression();
+                    if(match(SymbolTable.SEMICOLON))
+                        return span(new Ast.Stmt.Assignment(expr, expr2), start);
+                    else {
+                        exceptionHelper("Missing semicolon.");
+                    }
+
+                }
+
+                if(match(SymbolTable.SEMICOLON))
+                    return span(new Ast.Stmt.Expression(expr), start);
                 else {
                     exceptionHelper("Missing semicolon.");
                 }
-
-            }
-
-            if(match(";"))
-                return new Ast.Stmt.Expression(expr);
-            else {
-                exceptionHelper("Missing semicolon.");
-            }
         }
 
         throw new ParseException("temp", -1);
@@ -194,26 +628,27 @@ public final class Parser {
      */
     public Ast.Stmt.Declaration parseDeclarationStatement() throws ParseException {
         // 'LET' identifier (':' identifier)? ('=' expression)? ';'
-        match("LET");
+        int start = offset();
+        match(SymbolTable.LET);
 
         if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
-        String name = tokens.get(-1).getLiteral();
+        String name = tokens.literalAt(-1);
 
         Optional<String> type = Optional.empty();
-        if(match(":")) {
+        if(match(SymbolTable.COLON)) {
             if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Type Name.");
-            type = Optional.of(tokens.get(-1).getLiteral());
+            type = Optional.of(tokens.literalAt(-1));
         }
 
         Optional<Ast.Expr> value = Optional.empty();
-        if(match("=")) {
+        if(match(SymbolTable.ASSIGN)) {
             Ast.Expr expr = parseExpression();
             value = Optional.of(expr);
         }
 
-        if(!match(";")) exceptionHelper("Missing semicolon");
+        if(!match(SymbolTable.SEMICOLON)) exceptionHelper("Missing semicolon");
 
-        return new Ast.Stmt.Declaration(name, type, value);
+        return span(new Ast.Stmt.Declaration(name, type, value), start);
     }
 
     /**
@@ -223,41 +658,7 @@ public final class Parser {
      */
     public Ast.Stmt.If parseIfStatement() throws ParseException {
         // 'IF' expression 'DO' statement* ('ELSE' statement*)? 'END'
-        match("IF");
-
-        Ast.Expr expr = parseExpression();
-
-        if(!match("DO")) exceptionHelper("Expected DO keyword");
-
-        boolean flag = true;
-        ArrayList<Ast.Stmt> thenStatements = new ArrayList<Ast.Stmt>();
-
-        while(flag) {
-            if(peek("ELSE") || peek("END") || !tokens.has(0)) {
-                flag = false;
-            } else {
-                Ast.Stmt stmt = parseStatement();
-                thenStatements.add(stmt);
-            }
-        }
-
-        ArrayList<Ast.Stmt> elseStatements = new ArrayList<Ast.Stmt>();
-        flag = true;
-
-        if(match("ELSE")) {
-            while(flag) {
-                if(peek("END") || !tokens.has(0)) {
-                    flag = false;
-                } else {
-                    Ast.Stmt stmt = parseStatement();
-                    elseStatements.add(stmt);
-                }
-            }
-        }
-
-        if(!match("END")) exceptionHelper("Expected END keyword.");
-
-        return new Ast.Stmt.If(expr, thenStatements, elseStatements);
+        return (Ast.Stmt.If) parseBlocks(SymbolTable.IF);
     }
 
     /**
@@ -267,31 +668,7 @@ public final class Parser {
      */
     public Ast.Stmt.For parseForStatement() throws ParseException {
         // 'FOR' identifier 'IN' expression 'DO' statement* 'END'
-        match("FOR");
-
-        if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
-        String name = tokens.get(-1).getLiteral();
-
-        if(!match("IN")) exceptionHelper("Expected IN keyword");
-        Ast.Expr expr = parseExpression();
-
-        if(!match("DO")) exceptionHelper("Expected DO keyword.");
-
-        boolean flag = true;
-        ArrayList<Ast.Stmt> statements = new ArrayList<Ast.Stmt>();
-
-        while(flag) {
-            if(peek("END") || !tokens.has(0)) {
-                flag = false;
-            } else {
-                Ast.Stmt stmt = parseStatement();
-                statements.add(stmt);
-            }
-        }
-
-        if(!match("END")) exceptionHelper("Expected END keyword.");
-
-        return new Ast.Stmt.For(name, expr, statements);
+        return (Ast.Stmt.For) parseBlocks(SymbolTable.FOR);
     }
 
     /**
@@ -301,27 +678,78 @@ public final class Parser {
      */
     public Ast.Stmt.While parseWhileStatement() throws ParseException {
         // 'WHILE' expression 'DO' statement* 'END'
-        match("WHILE");
-
-        Ast.Expr expr = parseExpression();
-
-        if(!match("DO")) exceptionHelper("Expected DO keyword.");
+        return (Ast.Stmt.While) parseBlocks(SymbolTable.WHILE);
+    }
 
-        boolean flag = true;
-        ArrayList<Ast.Stmt> statements = new ArrayList<Ast.Stmt>();
+    /**
+     * Parses an if, for or while statement and every block nested within it
+     * with an explicit stack of open blocks instead of recursion, so the
+     * depth of nesting is not limited by the Java stack. Statements within the
+     * blocks, including the header or {@code END} of a nested block, are
+     * parsed as by {@link #parseBlockStatement()}, while an error in the
+     * outermost statement is thrown.
+     */
+    private Ast.Stmt parseBlocks(int kind) throws ParseException {
+        ArrayList<Block> blocks = new ArrayList<>();
+        blocks.add(parseBlockHeader(kind));
+        while(true) {
+            Block block = blocks.get(blocks.size() - 1);
+            if(tokens.has(0) && !peek(SymbolTable.END) && !(peek(SymbolTable.ELSE) && block.kind == SymbolTable.IF && !block.otherwise)
+                    && !peekMethod()) {
+                int start = tokens.position;
+                int offset = tokens.indexAt(0);
+                int symbol = tokens.symbolAt(0);
+                try {
+                    if(symbol == SymbolTable.IF || symbol == SymbolTable.FOR || symbol == SymbolTable.WHILE) {
+                        blocks.add(parseBlockHeader(symbol));
+                    } else {
+                        block.getStatements().add(parseSimpleStatement());
+                    }
+                } catch(ParseException e) {
+                    if(!recovering) throw e;
+                    block.getStatements().add(recover(e, start, offset));
+                }
+                continue;
+            }
+            if(block.kind == SymbolTable.IF && !block.otherwise && match(SymbolTable.ELSE)) {
+                block.otherwise = true;
+                continue;
+            }
 
-        while(flag) {
-            if(peek("END") || !tokens.has(0)) {
-                flag = false;
-            } else {
-                Ast.Stmt stmt = parseStatement();
-                statements.add(stmt);
+            ParseException exception = match(SymbolTable.END) ? null : exception("Expected END keyword.");
+            blocks.remove(blocks.size() - 1);
+            if(blocks.isEmpty() || (exception != null && !recovering)) {
+                if(exception != null) throw exception;
+                return span(block.toStmt(), block.offset);
             }
+            Block parent = blocks.get(blocks.size() - 1);
+            parent.getStatements().add(exception == null ? span(block.toStmt(), block.offset) : recover(exception, block.start, block.offset));
         }
+    }
 
-        if(!match("END")) exceptionHelper("Expected END keyword.");
-
-        return new Ast.Stmt.While(expr, statements);
+    /**
+     * Parses the tokens of an if, for or while statement up to its {@code DO}.
+     */
+    private Block parseBlockHeader(int kind) throws ParseException {
+        Block block = new Block(kind, tokens.position, offset());
+        match(kind);
+        switch(kind) {
+            case SymbolTable.IF:
+                block.value = parseExpression();
+                if(!match(SymbolTable.DO)) exceptionHelper("Expected DO keyword");
+                break;
+            case SymbolTable.FOR:
+                if(!match(Token.Type.IDENTIFIER)) exceptionHelper("Expected Identifier.");
+                block.name = tokens.literalAt(-1);
+                if(!match(SymbolTable.IN)) exceptionHelper("Expected IN keyword");
+                block.value = parseExpression();
+                if(!match(SymbolTable.DO)) exceptionHelper("Expected DO keyword.");
+                break;
+            default:
+                block.value = parseExpression();
+                if(!match(SymbolTable.DO)) exceptionHelper("Expected DO keyword.");
+        }
+        return block;
     }
 
     /**
@@ -331,228 +759,372 @@ public final class Parser {
      */
     public Ast.Stmt.Return parseReturnStatement() throws ParseException {
         // 'RETURN' expression ';'
-        match("RETURN");
+        int start = offset();
+        match(SymbolTable.RETURN);
 
         Ast.Expr expr = parseExpression();
 
-        if(!match(";")) exceptionHelper("Missing semicolon");
+        if(!match(SymbolTable.SEMICOLON)) exceptionHelper("Missing semicolon");
 
-        return new Ast.Stmt.Return(expr);
+        return span(new Ast.Stmt.Return(expr), start);
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expr parseExpression() throws ParseException {
-        return parseLogicalExpression();
+        return parseExpression(BINARY, LOGICAL);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expr parseLogicalExpression() throws ParseException {
-        Ast.Expr expr = parseEqualityExpression();
-        boolean flag = true;
-
-        while(flag) {
-            if (match("AND")) {
-                Ast.Expr expr2 = parseEqualityExpression();
-                expr =  new Ast.Expr.Binary("AND", expr, expr2);
-            } else if (match("OR")) {
-                Ast.Expr expr2 = parseEqualityExpression();
-                expr = new Ast.Expr.Binary("OR", expr, expr2);
-            } else {
-                flag = false;
-            }
-        }
-        return expr;
+        return parseExpression(BINARY, LOGICAL);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expr parseEqualityExpression() throws ParseException {
-        Ast.Expr expr = parseAdditiveExpression();
-        boolean flag = true;
-
-        while(flag) {
-            if (match("<")) {
-                expr = equalityHelper("<", expr);
-            } else if (match("<=")) {
-                expr = equalityHelper("<=", expr);
-            } else if (match(">")) {
-                expr = equalityHelper(">", expr);
-            } else if (match(">=")) {
-                expr = equalityHelper(">=", expr);
-            } else if (match("==")) {
-                expr = equalityHelper("==", expr);
-            } else if (match("!=")) {
-                expr = equalityHelper("!=", expr);
-            } else {
-                flag = false;
-            }
-        }
-        return expr;
-    }
-
-    private Ast.Expr equalityHelper(String operator, Ast.Expr expr) throws ParseException {
-        Ast.Expr expr2 = parseAdditiveExpression();
-        return new Ast.Expr.Binary(operator, expr, expr2);
+        return parseExpression(BINARY, EQUALITY);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expr parseAdditiveExpression() throws ParseException {
-        Ast.Expr expr = parseMultiplicativeExpression();
-        boolean flag = true;
-
-        while(flag) {
-            if (match("+")) {
-                Ast.Expr expr2 = parseMultiplicativeExpression();
-                expr = new Ast.Expr.Binary("+", expr, expr2);
-            } else if (match("-")) {
-                Ast.Expr expr2 = parseMultiplicativeExpression();
-                expr = new Ast.Expr.Binary("-", expr, expr2);
-            } else {
-                flag = false;
-            }
-        }
-        return expr;
+        return parseExpression(BINARY, ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expr parseMultiplicativeExpression() throws ParseException {
-        Ast.Expr expr = parseSecondaryExpression();
-        boolean flag = true;
+        return parseExpression(BINARY, MULTIPLICATIVE);
+    }
 
-        while(flag) {
-            if (match("*")) {
-                Ast.Expr expr2 = parseSecondaryExpression();
-                expr = new Ast.Expr.Binary("*", expr, expr2);
-            } else if (match("/")) {
-                Ast.Expr expr2 = parseSecondaryExpression();
-                expr = new Ast.Expr.Binary("/", expr, expr2);
-            } else {
-                flag = false;
+    /**
+     * Parses the {@code secondary-expression} rule.
+     */
+    public Ast.Expr parseSecondaryExpression() throws ParseException {
+        return parseExpression(SECONDARY, 0);
+    }
+
+    /**
+     * Parses the {@code primary-expression} rule. This is the top-level rule
+     * for expressions and includes literal values, grouping, variables, and
+     * functions.
+     */
+    public Ast.Expr parsePrimaryExpression() throws ParseException {
+        return parseExpression(PRIMARY, 0);
+    }
+
+    /**
+     * Parses an expression of the given rule with an explicit stack of
+     * partially parsed expressions instead of recursion, so nested groups,
+     * arguments and receivers are not limited by the Java stack. Each operand
+     * pushes a {@code BINARY} and a {@code SECONDARY} frame and is parsed by
+     * {@link #parseOperand()}, which pushes a {@code GROUP} or {@code CALL}
+     * frame (and the frames of its first operand) instead of parsing a nested
+     * expression. Once an operand is parsed, it is passed to the frames on the
+     * stack until one needs another operand.
+     *
+     * Binary operators are parsed by precedence climbing: a {@code BINARY}
+     * frame consumes operators binding at least as tightly as its power, with
+     * right operands parsed one level tighter so all operators are left
+     * associative. This produces the same trees as one method per precedence
+     * level with fewer frames per operand.
+     */
+    private Ast.Expr parseExpression(int rule, int power) throws ParseException {
+        int base = depth;
+        try {
+            if(rule == BINARY) {
+                pushOperand(power);
+            } else if(rule == SECONDARY) {
+                push(SECONDARY);
+            }
+            operand:
+            while(true) {
+                Ast.Expr expr = parseOperand();
+                if(expr == null) {
+                    continue;
+                }
+                while(depth > base) {
+                    Frame frame = frames[depth - 1];
+                    switch(frame.kind) {
+                        case BINARY:
+                            frame.expr = frame.expr == null ? expr
+                                    : span(binary(SymbolTable.getReservedName(frame.operator), frame.expr, expr), frame.start);
+                            if(tokens.has(0)) {
+                                int symbol = tokens.symbolAt(0);
+                                int operatorPower = bindingPower(symbol);
+                                if(operatorPower >= frame.power) {
+                                    tokens.advance();
+                                    frame.operator = symbol;
+                                    pushOperand(operatorPower + 1);
+                                    continue operand;
+                                }
+                            }
+                            break;
+                        case SECONDARY:
+                            frame.expr = expr;
+                            if(parseReceivers(frame)) {
+                                continue operand;
+                            }
+                            break;
+                        case GROUP:
+                            if(!match(SymbolTable.RIGHT_PAREN)) {
+                                exceptionHelper("Expected closing parenthesis");
+                            }
+                            frame.expr = span(group(expr), frame.start);
+                            break;
+                        default:
+                            frame.arguments.add(expr);
+                            if(match(SymbolTable.COMMA)) { //keep going if theres a comma
+                                pushOperand(LOGICAL);
+                                continue operand;
+                            }
+                            if(!match(SymbolTable.RIGHT_PAREN)) {
+                                exceptionHelper("Expected closing parenthesis");
+                            }
+                            frame.expr = span(new Ast.Expr.Function(frame.receiver, frame.name, frame.arguments), frame.start);
+                    }
+                    expr = frame.expr;
+                    pop();
+                }
+                return expr;
+            }
+        } finally {
+            while(depth > base) {
+                pop();
             }
         }
-        return expr;
     }
 
     /**
-     * Parses the {@code secondary-expression} rule.
+     * Returns the binding power of a binary operator symbol, or {@code 0} if
+     * the symbol is not a binary operator.
      */
-    public Ast.Expr parseSecondaryExpression() throws ParseException {
-        Ast.Expr expr = parsePrimaryExpression();
+    private static int bindingPower(int symbol) {
+        return symbol >= 0 && symbol < BINDING_POWERS.length ? BINDING_POWERS[symbol] : 0;
+    }
 
-        while(match(".")) { // check for dot operator
+    /**
+     * Parses the field accesses and method calls following the expression of
+     * a {@code SECONDARY} frame, returning {@code true} if a method call with
+     * arguments was started and its arguments must be parsed first.
+     */
+    private boolean parseReceivers(Frame frame) throws ParseException {
+        while(match(SymbolTable.DOT)) { // check for dot operator
             if(match(Token.Type.IDENTIFIER)) {  //make sure its an identifier
-                String name = tokens.get(-1).getLiteral(); //identifier name
-                if(match("(")) {  //if its a method call
-                    if(match(")")) {
-                        expr = new Ast.Expr.Function(Optional.of(expr), name, Arrays.asList());
-                    } else {
-                        ArrayList<Ast.Expr> params = new ArrayList<>();
-                        do {
-                            params.add(parseExpression());
-                        } while (match(",")); //do once, then keep going if theres a comma
-                        if (match(")")) {//make sure we check if theres a closing bracket else throw exception
-                            expr = new Ast.Expr.Function(Optional.of(expr), name, params);
-                        } else {
-                            exceptionHelper("Expected closing parenthesis");
-                        }
-                    }
+                String name = tokens.literalAt(-1); //identifier name
+                if(match(SymbolTable.LEFT_PAREN, SymbolTable.RIGHT_PAREN)) {
+                    frame.expr = span(new Ast.Expr.Function(Optional.of(frame.expr), name, Arrays.asList()), frame.start);
+                } else if(match(SymbolTable.LEFT_PAREN)) {  //if its a method call
+                    pushCall(Optional.of(frame.expr), name, frame.start);
+                    return true;
                 } else { // if its a variable
-                    expr = new Ast.Expr.Access(Optional.of(expr), name); //makes the entire expresion before the new expression if
-                    // theres multiple dot operators
+                    frame.expr = span(new Ast.Expr.Access(Optional.of(frame.expr), name), frame.start);
                 }
             } else {
                 exceptionHelper("Invalid dot operator use");
             }
         }
-        return expr;
+        return false;
     }
 
     /**
-     * Parses the {@code primary-expression} rule. This is the top-level rule
-     * for expressions and includes literal values, grouping, variables, and
-     * functions. It may be helpful to break these up into other methods but is
-     * not strictly necessary.
+     * Parses a literal, variable or function without arguments, or returns
+     * {@code null} after starting a group or a function call with arguments.
      */
-    public Ast.Expr parsePrimaryExpression() throws ParseException {
-        if(match("TRUE")) {
-            return new Ast.Expr.Literal(true);
-        } else if(match("FALSE")) {
-            return new Ast.Expr.Literal(false);
-        } else if(match("NIL")) {
-            return new Ast.Expr.Literal(null);
-        } else if(match(Token.Type.INTEGER)) {
-            return new Ast.Expr.Literal(new BigInteger(tokens.get(-1).getLiteral()));
-        } else if(match(Token.Type.DECIMAL)) {
-            return new Ast.Expr.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
-        } else if(match(Token.Type.STRING)) {
-            String str = tokens.get(-1).getLiteral();
-            str = str.replaceAll("\\\\b", "\b");
-            str = str.replaceAll("\\\\r", "\r");
-            str = str.replaceAll("\\\\t", "\t");
-            str = str.replaceAll("\\\\n", "\n");
-            str = str.replaceAll("\\\\f", "\f");
-            str = str.replaceAll("\\\\000B", "\013");
-            str = str.replaceAll("\\\\\'", "\'");
-            str = str.replaceAll("\\\\\"", "\"");
-            str = str.replaceAll("\\\\\\\\", "\\");
-            return new Ast.Expr.Literal(str.substring(1, str.length()-1));
-        } else if(match(Token.Type.CHARACTER)) {
-            String str = tokens.get(-1).getLiteral();
-            str = str.replaceAll("\\\\b", "\b");
-            str = str.replaceAll("\\\\r", "\r");
-            str = str.replaceAll("\\\\t", "\t");
-            str = str.replaceAll("\\\\n", "\n");
-            str = str.replaceAll("\\\\f", "\f");
-            str = str.replaceAll("\\\\000B", "\013");
-            str = str.replaceAll("\\\\\'", "\'");
-            str = str.replaceAll("\\\\\"", "\"");
-            str = str.replaceAll("\\\\\\\\", "\\");
-            return new Ast.Expr.Literal(new Character(str.charAt(1)));
-        } else if(match(Token.Type.IDENTIFIER)) {
-            String name = tokens.get(-1).getLiteral();
-            if(match("(")) {  //if its a method call
-                if(match(")")) {
-                    return new Ast.Expr.Function(Optional.empty(), name, Arrays.asList());
-                } else {
-                    ArrayList<Ast.Expr> params = new ArrayList<>();
-                    do {
-                        params.add(parseExpression());
-                    } while (match(",")); //do once, then keep going if theres a comma
-                    if (match(")")) {//make sure we check if theres a closing bracket else throw exception
-                        return new Ast.Expr.Function(Optional.empty(), name, params);
-                    } else {
-                        exceptionHelper("Expected closing parenthesis");
-                    }
-                }
-            }
-            return new Ast.Expr.Access(Optional.empty(), name);
-            //obj.method()
-        } else if(match("(")) {
-            Ast.Expr expr = parseExpression();
-            if(!match(")")) {
-                exceptionHelper("Expected closing parenthesis");
-            }
-            return new Ast.Expr.Group(expr);
-        } else {
+    private Ast.Expr parseOperand() throws ParseException {
+        if(!tokens.has(0)) {
             exceptionHelper("Invalid Primary Expression.");
-            return null;
         }
+        int start = tokens.indexAt(0);
+
+        switch(tokens.symbolAt(0)) {
+            case SymbolTable.TRUE:
+                tokens.advance();
+                return span(literal(true), start);
+            case SymbolTable.FALSE:
+                tokens.advance();
+                return span(literal(false), start);
+            case SymbolTable.NIL:
+                tokens.advance();
+                return span(literal(null), start);
+            case SymbolTable.LEFT_PAREN:
+                tokens.advance();
+                push(GROUP).start = start;
+                pushOperand(LOGICAL);
+                return null;
+        }
+
+        switch(tokens.typeAt(0)) {
+            case INTEGER:
+                tokens.advance();
+                return span(literal(literals.getInteger(tokens.literalAt(-1))), start);
+            case DECIMAL:
+                tokens.advance();
+                return span(literal(literals.getDecimal(tokens.literalAt(-1))), start);
+            case STRING:
+                tokens.advance();
+                return span(literal(literals.getString(tokens.literalAt(-1))), start);
+            case CHARACTER:
+                tokens.advance();
+                return span(literal(literals.getCharacter(tokens.literalAt(-1))), start);
+            case IDENTIFIER:
+                tokens.advance();
+                String name = tokens.literalAt(-1);
+                if(match(SymbolTable.LEFT_PAREN, SymbolTable.RIGHT_PAREN)) {
+                    return span(new Ast.Expr.Function(Optional.empty(), name, Arrays.asList()), start);
+                } else if(match(SymbolTable.LEFT_PAREN)) {  //if its a method call
+                    pushCall(Optional.empty(), name, start);
+                    return null;
+                }
+                return span(new Ast.Expr.Access(Optional.empty(), name), start);
+            default:
+                exceptionHelper("Invalid Primary Expression.");
+                return null;
+        }
+    }
+
+    private Ast.Expr.Literal literal(Object literal) {
+        return factory == null || spans ? new Ast.Expr.Literal(literal) : factory.literal(literal);
+    }
+
+    private Ast.Expr.Group group(Ast.Expr expression) {
+        return factory == null || spans ? new Ast.Expr.Group(expression) : factory.group(expression);
+    }
+
+    private Ast.Expr.Binary binary(String operator, Ast.Expr left, Ast.Expr right) {
+        return factory == null || spans ? new Ast.Expr.Binary(operator, left, right) : factory.binary(operator, left, right);
+    }
+
+    private Frame push(int kind) {
+        if(depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Frame frame = frames[depth];
+        if(frame == null) {
+            frame = frames[depth] = new Frame();
+        }
+        frame.kind = kind;
+        frame.start = offset();
+        depth++;
+        return frame;
+    }
+
+    private void pushOperand(int power) {
+        push(BINARY).power = power;
+        push(SECONDARY);
+    }
+
+    private void pushCall(Optional<Ast.Expr> receiver, String name, int start) {
+        Frame frame = push(CALL);
+        frame.start = start;
+        frame.receiver = receiver;
+        frame.name = name;
+        frame.arguments = new ArrayList<>();
+        pushOperand(LOGICAL);
+    }
+
+    private void pop() {
+        Frame frame = frames[--depth];
+        frame.expr = null;
+        frame.receiver = null;
+        frame.name = null;
+        frame.arguments = null;
+    }
+
+    /**
+     * Parses a statement within a block. When recovering, a statement which
+     * fails to parse is replaced by an {@link Ast.Stmt.Error} as described in
+     * {@link #recover(ParseException, int, int)}.
+     */
+    private Ast.Stmt parseBlockStatement() throws ParseException {
+        if(!recovering) return parseStatement();
+        int start = tokens.position;
+        int offset = offset();
+        try {
+            return parseStatement();
+        } catch(ParseException e) {
+            return recover(e, start, offset);
+        }
+    }
+
+    /**
+     * Records an error in a statement starting at token {@code start}, which
+     * is at {@code offset} in the source, and skips the tokens up to the next synchronizing token, consuming a {@code
+     * ;} but leaving {@code END}, {@code DEF}, {@code LET} and {@code ELSE} to
+     * start the next statement or close the block. The blocks being parsed
+     * end at the start of a method (see {@link #peekMethod()}), so it is
+     * never consumed here.
+     */
+    private Ast.Stmt.Error recover(ParseException e, int start, int offset) {
+        diagnostics.add(e);
+        while(tokens.has(0) && !match(SymbolTable.SEMICOLON) && !peek(SymbolTable.END)
+                && !peek(SymbolTable.DEF) && !peek(SymbolTable.LET) && !peek(SymbolTable.ELSE)) {
+            tokens.advance();
+        }
+        if(tokens.position == start && tokens.has(0) && !peek(SymbolTable.END) && !peekMethod()) {
+            tokens.advance();
+        }
+        return span(new Ast.Stmt.Error(e.getMessage(), e.getIndex()), offset);
+    }
+
+    /**
+     * Returns {@code true} if the parser is recovering and the next tokens
+     * start a method: a {@code DEF} followed by a name other than {@code AND}
+     * or {@code OR}. Keywords can also be used as names, but no statement
+     * starts this way.
+     */
+    private boolean peekMethod() {
+        return recovering && tokens.has(1) && tokens.symbolAt(0) == SymbolTable.DEF && tokens.typeAt(1) == Token.Type.IDENTIFIER
+                && tokens.symbolAt(1) != SymbolTable.AND && tokens.symbolAt(1) != SymbolTable.OR;
+    }
+
+    /**
+     * Returns the offset of the next token, or the end of the tokens if there
+     * are none.
+     */
+    private int offset() {
+        return tokens.has(0) ? tokens.indexAt(0) : end();
+    }
+
+    /**
+     * Returns the offset after the previous token, or {@code 0} if there is
+     * none.
+     */
+    private int end() {
+        if(!tokens.has(-1)) return 0;
+        return tokens.indexAt(-1) + tokens.lengthAt(-1);
+    }
+
+    /**
+     * Sets the span of a node from {@code start} to the end of the previous
+     * token, if spans are recorded.
+     */
+    private <T extends Ast> T span(T ast, int start) {
+        if(spans) {
+            ast.setSpan(start, end());
+        }
+        return ast;
     }
 
     private void exceptionHelper(String str) throws ParseException {
+        throw exception(str);
+    }
+
+    private ParseException exception(String str) {
+        ParseException exception;
         if(tokens.has(0))
-            throw new ParseException(str, tokens.get(0).getIndex());
+            exception = new ParseException(str, tokens.indexAt(0));
         else
-            throw new ParseException(str, tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
+            exception = new ParseException(str, tokens.indexAt(-1) + tokens.lengthAt(-1));
+        exception.setLines(lines);
+        return exception;
     }
 
     /**
@@ -570,10 +1142,10 @@ public final class Parser {
             if(!tokens.has(i)) {
                 return false;
             } else if(patterns[i] instanceof Token.Type) {
-                if(patterns[i] != tokens.get(i).getType())
+                if(patterns[i] != tokens.typeAt(i))
                     return false;
             } else if(patterns[i] instanceof String) {
-                if(!patterns[i].equals(tokens.get(i).getLiteral()))
+                if(!patterns[i].equals(tokens.literalAt(i)))
                     return false;
             } else {
                 throw new AssertionError("Invalid pattern object: " + patterns[i].getClass());
@@ -598,34 +1170,358 @@ public final class Parser {
         return peek;
     }
 
+    /**
+     * Returns {@code true} if the next token has the given type. This and the
+     * following overloads specialize {@link #peek(Object...)} for the common
+     * patterns, which avoids allocating a varargs array on every call.
+     */
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.typeAt(0) == type;
+    }
+
+    /**
+     * Returns {@code true} if the next token is the given keyword or operator,
+     * as one of the reserved {@link SymbolTable} ids. Comparing symbols is
+     * equivalent to comparing literals but never needs the literal string.
+     */
+    private boolean peek(int symbol) {
+        return tokens.has(0) && tokens.symbolAt(0) == symbol;
+    }
+
+    private boolean peek(int first, int second) {
+        return tokens.has(1) && tokens.symbolAt(0) == first && tokens.symbolAt(1) == second;
+    }
+
+    private boolean match(Token.Type type) {
+        boolean peek = peek(type);
+        if(peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    private boolean match(int symbol) {
+        boolean peek = peek(symbol);
+        if(peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    private boolean match(int first, int second) {
+        boolean peek = peek(first, second);
+        if(peek) {
+            tokens.advance();
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * An if, for or while statement whose block is being parsed by {@link
+     * #parseBlocks(int)}.
+     */
+    private static final class Block {
+
+        private final int kind;
+        private final int start;
+        private final int offset;
+        private String name;
+        private Ast.Expr value;
+        private final ArrayList<Ast.Stmt> statements = new ArrayList<>();
+        private ArrayList<Ast.Stmt> elseStatements;
+        private boolean otherwise = false;
+
+        private Block(int kind, int start, int offset) {
+            this.kind = kind;
+            this.start = start;
+            this.offset = offset;
+            this.elseStatements = kind == SymbolTable.IF ? new ArrayList<>() : null;
+        }
+
+        /**
+         * Returns the statements of the block being parsed, which are the
+         * else statements after an {@code ELSE}.
+         */
+        private List<Ast.Stmt> getStatements() {
+            return otherwise ? elseStatements : statements;
+        }
+
+        private Ast.Stmt toStmt() {
+            switch(kind) {
+                case SymbolTable.IF:
+                    return new Ast.Stmt.If(value, statements, elseStatements);
+                case SymbolTable.FOR:
+                    return new Ast.Stmt.For(name, value, statements);
+                default:
+                    return new Ast.Stmt.While(value, statements);
+            }
+        }
+
+    }
+
+    /**
+     * A partially parsed expression on the stack of {@link
+     * #parseExpression(int, int)}. Frames are reused between expressions.
+     */
+    private static final class Frame {
+
+        private int kind;
+        private int start;
+        private int power;
+        private int operator;
+        private Ast.Expr expr;
+        private Optional<Ast.Expr> receiver;
+        private String name;
+        private ArrayList<Ast.Expr> arguments;
+
+    }
+
+    /**
+     * Moves the spans starting at or after an offset by a number of
+     * characters, iteratively so deeply nested trees do not overflow the
+     * stack. Each node is visited at most once, since expressions shared by
+     * an {@link AstFactory} may appear several times (though these have no
+     * span to move).
+     */
+    private static final class SpanShifter implements Ast.Visitor<Void> {
+
+        private final int offset;
+        private final int delta;
+        private final ArrayList<Ast> pending = new ArrayList<>();
+        private final Set<Ast> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private SpanShifter(int offset, int delta) {
+            this.offset = offset;
+            this.delta = delta;
+        }
+
+        private void shift(Ast root) {
+            pending.add(root);
+            while(!pending.isEmpty()) {
+                Ast ast = pending.remove(pending.size() - 1);
+                if(!visited.add(ast)) {
+                    continue;
+                }
+                if(ast.getStart() >= offset) {
+                    ast.setSpan(ast.getStart() + delta, ast.getEnd() + delta);
+                }
+                visit(ast);
+            }
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            pending.addAll(ast.getFields());
+            pending.addAll(ast.getMethods());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Field ast) {
+            ast.getValue().ifPresent(pending::add);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            pending.addAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Expression ast) {
+            pending.add(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            ast.getValue().ifPresent(pending::add);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            pending.add(ast.getReceiver());
+            pending.add(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            pending.add(ast.getCondition());
+            pending.addAll(ast.getThenStatements());
+            pending.addAll(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            pending.add(ast.getValue());
+            pending.addAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            pending.add(ast.getCondition());
+            pending.addAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Return ast) {
+            pending.add(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Error ast) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Literal ast) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Group ast) {
+            pending.add(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Binary ast) {
+            pending.add(ast.getLeft());
+            pending.add(ast.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            ast.getReceiver().ifPresent(pending::add);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            ast.getReceiver().ifPresent(pending::add);
+            pending.addAll(ast.getArguments());
+            return null;
+        }
+
+    }
+
+    /**
+     * The tokens being parsed, either pulled from an iterator (keeping only
+     * the lookahead and the previous token) or read in place from a range of
+     * a {@link TokenBuffer}. The parser reads tokens through the accessors by
+     * offset from the current position, such as {@link #symbolAt(int)}, which
+     * for a buffer read its arrays without creating {@link Token}s.
+     */
     private static final class TokenStream {
 
-        private final List<Token> tokens;
-        private int index = 0;
+        private Iterator<Token> tokens;
+        private final ArrayList<Token> lookahead = new ArrayList<>();
+        private Token previous = null;
+        private final TokenBuffer buffer;
+        private final int base;
+        private final int end;
+        private int position = 0;
 
-        private TokenStream(List<Token> tokens) {
+        private TokenStream(Iterator<Token> tokens) {
             this.tokens = tokens;
+            this.buffer = null;
+            this.base = 0;
+            this.end = 0;
+        }
+
+        private TokenStream(TokenBuffer buffer, int from, int to) {
+            this.tokens = null;
+            this.buffer = buffer;
+            this.base = from;
+            this.end = to;
         }
 
         /**
-         * Returns true if there is a token at index + offset.
+         * Returns true if there is a token at index + offset. Only the
+         * previous token (offset {@code -1}) is retained behind the index.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            if (offset < 0) {
+                if (buffer != null) {
+                    return offset == -1 && position > 0;
+                }
+                return offset == -1 && previous != null;
+            }
+            if (buffer != null) {
+                return base + position + offset < end;
+            }
+            while (lookahead.size() <= offset && tokens.hasNext()) {
+                lookahead.add(tokens.next());
+            }
+            return offset < lookahead.size();
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            if (!has(offset)) {
+                throw new IndexOutOfBoundsException("No token at offset " + offset + ".");
+            }
+            if (buffer != null) {
+                return buffer.get(base + position + offset);
+            }
+            return offset == -1 ? previous : lookahead.get(offset);
+        }
+
+        public Token.Type typeAt(int offset) {
+            return buffer != null && has(offset) ? buffer.typeAt(base + position + offset) : get(offset).getType();
+        }
+
+        public int symbolAt(int offset) {
+            return buffer != null && has(offset) ? buffer.symbolAt(base + position + offset) : get(offset).getSymbol();
+        }
+
+        public int indexAt(int offset) {
+            return buffer != null && has(offset) ? buffer.indexAt(base + position + offset) : get(offset).getIndex();
+        }
+
+        public int lengthAt(int offset) {
+            return buffer != null && has(offset) ? buffer.lengthAt(base + position + offset) : get(offset).getLength();
+        }
+
+        public String literalAt(int offset) {
+            return buffer != null && has(offset) ? buffer.literalAt(base + position + offset) : get(offset).getLiteral();
         }
 
         /**
          * Advances to the next token, incrementing the index.
          */
         public void advance() {
-            index++;
+            if (buffer == null) {
+                has(0);
+                previous = lookahead.remove(0);
+            }
+            position++;
+        }
+
+        /**
+         * Moves to the end of the tokens, after the work of parsing them has
+         * been done elsewhere (such as by the chunk parsers of {@link
+         * #parseSourceParallel(ForkJoinPool)}), given the list of the tokens.
+         */
+        public void finish(List<Token> list) {
+            if (buffer != null) {
+                position = end - base;
+            } else {
+                tokens = Collections.emptyIterator();
+                lookahead.clear();
+                previous = list.get(list.size() - 1);
+            }
         }
 
     }
@@ -1,16 +1,30 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * A scope of variables and functions. Most scopes are the frames of blocks
+ * and method calls, which declare few variables or none, so nothing is
+ * allocated until a variable or function is defined: variables are kept in an
+ * array in the order they are defined (their slots) and searched linearly,
+ * with a map by name only once a scope has more than {@link #INDEXED}
+ * variables.
+ */
 public final class Scope {
 
-    private final Scope parent;
-    private final Map<String, Environment.Variable> variables = new HashMap<>();
-    private final Map<String, Environment.Function> functions = new HashMap<>();
+    private static final int INDEXED = 8;
+
+    private Scope parent;
+    private Environment.Variable[] slots = null;
+    private int size = 0;
+    private Map<String, Environment.Variable> variables = null;
+    private Map<String, Environment.Function> functions = null;
 
     public Scope(Scope parent) {
         this.parent = parent;
@@ -20,28 +34,115 @@ public final class Scope {
         return parent;
     }
 
+    /**
+     * Removes all variables and functions and sets a new parent, so the
+     * {@link Interpreter} can reuse the frame of a block once it is exited.
+     * The arrays of the frame are kept, so reusing it allocates nothing.
+     */
+    Scope reset(Scope parent) {
+        this.parent = parent;
+        if (slots != null) {
+            Arrays.fill(slots, 0, size, null);
+        }
+        size = 0;
+        variables = null;
+        functions = null;
+        return this;
+    }
+
     public void defineVariable(String name, Environment.PlcObject value) {
         defineVariable(name, name, Environment.Type.ANY, value);
     }
 
     public Environment.Variable defineVariable(String name, String jvmName, Environment.Type type, Environment.PlcObject value) {
-        if (variables.containsKey(name)) {
+        if (findVariable(name) != null) {
             throw new RuntimeException("The variable " + name + " is already defined in this scope.");
         } else {
             Environment.Variable variable = new Environment.Variable(name, jvmName, type, value);
-            variables.put(variable.getName(), variable);
-            return variables.get(name);
+            if (slots == null) {
+                slots = new Environment.Variable[4];
+            } else if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = variable;
+            if (variables != null) {
+                variables.put(name, variable);
+            } else if (size > INDEXED) {
+                variables = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    variables.put(slots[i].getName(), slots[i]);
+                }
+            }
+            return variable;
         }
     }
 
+    /**
+     * Defines a variable in the given slot, which must be the next one (the
+     * number of variables defined in this scope). This is how the {@link
+     * Interpreter} defines variables whose slot was set by the {@link Analyzer}.
+     */
+    public void defineVariable(int slot, String name, Environment.PlcObject value) {
+        if (slot != size) {
+            throw new RuntimeException("The variable " + name + " was analyzed for slot " + slot + ", but the next slot in this scope is " + size + ".");
+        }
+        defineVariable(name, value);
+    }
+
     public Environment.Variable lookupVariable(String name) {
-        if (variables.containsKey(name)) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Environment.Variable variable = scope.findVariable(name);
+            if (variable != null) {
+                return variable;
+            }
+        }
+        throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+    }
+
+    /**
+     * Returns the variable in the given slot of the scope {@code depth} levels
+     * above this one. Variables are assigned slots in the order they are
+     * defined, so the {@link Analyzer} can compute them ahead of time (see
+     * {@link Ast.Expr.Access#getDepth()}) and the lookup needs no hashing.
+     */
+    public Environment.Variable lookupVariable(int depth, int slot) {
+        Scope scope = this;
+        for (int i = 0; i < depth && scope != null; i++) {
+            scope = scope.parent;
+        }
+        if (depth < 0 || scope == null || slot < 0 || slot >= scope.size) {
+            throw new RuntimeException("The variable at depth " + depth + ", slot " + slot + " is not defined in this scope.");
+        }
+        return scope.slots[slot];
+    }
+
+    /**
+     * Returns the slot of the variable with the given name defined in this
+     * scope (not its parents), or {@code -1} if there is none.
+     */
+    public int getSlot(String name) {
+        for (int i = 0; i < size; i++) {
+            if (slots[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the variable with the given name defined in this scope (not its
+     * parents), or {@code null} if there is none.
+     */
+    private Environment.Variable findVariable(String name) {
+        if (variables != null) {
             return variables.get(name);
-        } else if (parent != null) {
-            return parent.lookupVariable(name);
-        } else {
-            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
         }
+        for (int i = 0; i < size; i++) {
+            if (slots[i].getName().equals(name)) {
+                return slots[i];
+            }
+        }
+        return null;
     }
 
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
@@ -53,6 +154,9 @@ public final class Scope {
     }
 
     public Environment.Function defineFunction(String name, String jvmName, List<Environment.Type> parameterTypes, Environment.Type returnType, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
+        if (functions == null) {
+            functions = new HashMap<>();
+        }
         if (functions.containsKey(name + "/" + parameterTypes.size())) {
             throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
         } else {
@@ -63,21 +167,31 @@ public final class Scope {
     }
 
     public Environment.Function lookupFunction(String name, int arity) {
-        if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
-        } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
-        } else {
-            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+        String key = null;
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.functions != null) {
+                if (key == null) {
+                    key = name + "/" + arity;
+                }
+                Environment.Function function = scope.functions.get(key);
+                if (function != null) {
+                    return function;
+                }
+            }
         }
+        throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
     }
 
     @Override
     public String toString() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            names.add(slots[i].getName());
+        }
         return "Scope{" +
                 "parent=" + parent +
-                ", variables=" + variables.keySet() +
-                ", functions=" + functions.keySet() +
+                ", variables=" + names +
+                ", functions=" + (functions == null ? Collections.emptySet() : functions.keySet()) +
                 '}';
     }
 
@@ -0,0 +1,173 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifier and operator literals into integer ids. The keywords and
+ * operators of the grammar are reserved with the fixed ids below in every
+ * table, so the parser can dispatch on them with a {@code switch} instead of
+ * comparing strings. Other identifiers are assigned ids in the order they are
+ * first interned, starting at {@link #RESERVED_COUNT}.
+ *
+ * Tables are not thread safe; a table should be shared only by the lexer and
+ * later passes of a single compilation.
+ */
+public final class SymbolTable {
+
+    /**
+     * The symbol of tokens which are not identifiers or operators.
+     */
+    public static final int NONE = -1;
+
+    public static final int LET = 0, DEF = 1, DO = 2, END = 3, IF = 4, ELSE = 5,
+            FOR = 6, IN = 7, WHILE = 8, RETURN = 9, TRUE = 10, FALSE = 11, NIL = 12,
+            AND = 13, OR = 14;
+
+    public static final int LEFT_PAREN = 15, RIGHT_PAREN = 16, COMMA = 17,
+            SEMICOLON = 18, COLON = 19, ASSIGN = 20, EQUAL = 21, NOT_EQUAL = 22,
+            LESS = 23, LESS_EQUAL = 24, GREATER = 25, GREATER_EQUAL = 26, PLUS = 27,
+            MINUS = 28, MULTIPLY = 29, DIVIDE = 30, DOT = 31;
+
+    public static final int RESERVED_COUNT = 32;
+
+    private static final String[] RESERVED = {
+            "LET", "DEF", "DO", "END", "IF", "ELSE", "FOR", "IN", "WHILE", "RETURN",
+            "TRUE", "FALSE", "NIL", "AND", "OR",
+            "(", ")", ",", ";", ":", "=", "==", "!=", "<", "<=", ">", ">=", "+", "-",
+            "*", "/", "."
+    };
+
+    /**
+     * A table containing only the reserved symbols, used to classify tokens
+     * which were not produced through a lexer's table. It is never modified.
+     */
+    private static final SymbolTable RESERVED_TABLE = new SymbolTable();
+
+    private String[] names = new String[64];
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    public SymbolTable() {
+        for (String name : RESERVED) {
+            intern(name);
+        }
+    }
+
+    /**
+     * Returns the reserved symbol of the given literal, or {@link #NONE} if it
+     * is not a keyword or operator.
+     */
+    public static int reserved(CharSequence literal) {
+        return reserved(literal, 0, literal.length());
+    }
+
+    /**
+     * Returns the reserved symbol of the characters of {@code source} from
+     * {@code start} to {@code end}, or {@link #NONE} if they are not a keyword
+     * or operator.
+     */
+    public static int reserved(CharSequence source, int start, int end) {
+        return RESERVED_TABLE.lookup(source, start, end);
+    }
+
+    /**
+     * Returns the keyword or operator literal of a reserved symbol.
+     */
+    public static String getReservedName(int symbol) {
+        if (symbol < 0 || symbol >= RESERVED_COUNT) {
+            throw new IllegalArgumentException("Symbol " + symbol + " is not reserved.");
+        }
+        return RESERVED[symbol];
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the id of the characters of {@code source} from {@code start} to
+     * {@code end}, assigning a new id if they have not been seen before. No
+     * string is created unless the symbol is new.
+     */
+    public int intern(CharSequence source, int start, int end) {
+        int hash = hash(source, start, end);
+        int slot = find(source, start, end, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        names[size] = source.subSequence(start, end).toString();
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of the given characters if they have been interned, or
+     * {@link #NONE} otherwise.
+     */
+    public int lookup(CharSequence source, int start, int end) {
+        int slot = find(source, start, end, hash(source, start, end));
+        return slots[slot] - 1;
+    }
+
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Unknown symbol " + id + ".");
+        }
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(CharSequence source, int start, int end, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0 && !matches(names[slots[slot] - 1], source, start, end)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = names[id].hashCode() & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Computes the same hash as {@link String#hashCode()} over a range.
+     */
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
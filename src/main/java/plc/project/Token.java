@@ -12,13 +12,37 @@ public final class Token {
     }
 
     private final Type type;
-    private final String literal;
+    private final CharSequence source;
     private final int index;
+    private final int length;
+    private final int symbol;
+    private String literal;
 
     public Token(Type type, String literal, int index) {
+        this(type, null, index, literal.length(), literal, SymbolTable.reserved(literal));
+    }
+
+    /**
+     * Creates a token whose literal is the characters of {@code source} from
+     * {@code index} to {@code index + length}. The literal is only copied out
+     * of the source the first time it is requested, which allows sources such
+     * as a memory mapped file to be lexed without copying every token.
+     */
+    public Token(Type type, CharSequence source, int index, int length) {
+        this(type, source, index, length, null, SymbolTable.reserved(source, index, index + length));
+    }
+
+    /**
+     * Creates a token with a symbol from a {@link SymbolTable}. Either the
+     * source or the literal must be non-null.
+     */
+    Token(Type type, CharSequence source, int index, int length, String literal, int symbol) {
         this.type = type;
-        this.literal = literal;
+        this.source = source;
         this.index = index;
+        this.length = length;
+        this.literal = literal;
+        this.symbol = symbol;
     }
 
     public Type getType() {
@@ -26,6 +50,9 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            literal = source.subSequence(index, index + length).toString();
+        }
         return literal;
     }
 
@@ -33,17 +60,50 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns the length of the literal, without copying it out of the
+     * source.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the id of this token in the {@link SymbolTable} of the lexer
+     * which produced it. Keywords and operators always have their reserved
+     * ids, and tokens which are not identifiers or operators have {@link
+     * SymbolTable#NONE}.
+     */
+    public int getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns a copy of this token with a symbol from a different table.
+     */
+    Token withSymbol(int symbol) {
+        return new Token(type, source, index, length, literal, symbol);
+    }
+
+    /**
+     * Returns a copy of this token moved by {@code delta} characters, reading
+     * its literal from {@code source} if it has not been copied out yet.
+     */
+    Token moved(CharSequence source, int delta) {
+        return new Token(type, source, index + delta, length, literal, symbol);
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
@@ -0,0 +1,135 @@
+package plc.project;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A compact list of tokens lexed from a single source. Instead of one
+ * {@link Token} object (and literal string) per token, the buffer stores the
+ * type ordinal, start index, length and symbol of each token in primitive
+ * arrays and only creates {@link Token}s when they are requested through
+ * {@link #get(int)}. Literals are sliced out of the source on demand.
+ *
+ * Since the buffer is a {@link java.util.List}, it can be passed anywhere the
+ * result of {@link Lexer#lex()} is used, including the {@link Parser}.
+ */
+public final class TokenBuffer extends AbstractList<Token> implements RandomAccess {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final CharSequence source;
+    private byte[] types = new byte[16];
+    private int[] indices = new int[16];
+    private int[] lengths = new int[16];
+    private int[] symbols = new int[16];
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this.source = source;
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Appends a token covering {@code length} characters of the source
+     * starting at {@code index}.
+     */
+    public void add(Token.Type type, int index, int length, int symbol) {
+        if (size == types.length) {
+            grow(size * 2);
+        }
+        types[size] = (byte) type.ordinal();
+        indices[size] = index;
+        lengths[size] = length;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    /**
+     * Replaces the tokens from {@code from} to {@code to} with those of
+     * another buffer and moves the start index of every token after them by
+     * {@code delta}, for {@link Lexer#relex(TokenBuffer, SymbolTable, int,
+     * int, int)}. The following tokens are moved within the arrays rather
+     * than recreated.
+     */
+    void replace(int from, int to, TokenBuffer replacement, int delta) {
+        int count = replacement.size;
+        int total = size - (to - from) + count;
+        if (total > types.length) {
+            grow(Math.max(total, types.length * 2));
+        }
+        int tail = size - to;
+        System.arraycopy(types, to, types, from + count, tail);
+        System.arraycopy(indices, to, indices, from + count, tail);
+        System.arraycopy(lengths, to, lengths, from + count, tail);
+        System.arraycopy(symbols, to, symbols, from + count, tail);
+        System.arraycopy(replacement.types, 0, types, from, count);
+        System.arraycopy(replacement.indices, 0, indices, from, count);
+        System.arraycopy(replacement.lengths, 0, lengths, from, count);
+        System.arraycopy(replacement.symbols, 0, symbols, from, count);
+        if (delta != 0) {
+            for (int i = from + count; i < total; i++) {
+                indices[i] += delta;
+            }
+        }
+        size = total;
+        modCount++;
+    }
+
+    private void grow(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        indices = Arrays.copyOf(indices, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    public Token.Type typeAt(int i) {
+        checkIndex(i);
+        return TYPES[types[i]];
+    }
+
+    public int indexAt(int i) {
+        checkIndex(i);
+        return indices[i];
+    }
+
+    public int lengthAt(int i) {
+        checkIndex(i);
+        return lengths[i];
+    }
+
+    public int symbolAt(int i) {
+        checkIndex(i);
+        return symbols[i];
+    }
+
+    public String literalAt(int i) {
+        checkIndex(i);
+        return source.subSequence(indices[i], indices[i] + lengths[i]).toString();
+    }
+
+    /**
+     * Creates the token at the given position. The token's literal is not
+     * copied out of the source until it is first requested.
+     */
+    @Override
+    public Token get(int i) {
+        checkIndex(i);
+        return new Token(TYPES[types[i]], source, indices[i], lengths[i], null, symbols[i]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size + ".");
+        }
+    }
+
+}
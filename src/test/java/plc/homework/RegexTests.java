@@ -2,10 +2,16 @@ package plc.homework;
 
 import com.sun.org.apache.xpath.internal.Arg;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -174,11 +180,41 @@ public class RegexTests {
     }
 
     /**
-     * Asserts that the input matches the given pattern. This method doesn't do
-     * much now, but you will see this concept in future assignments.
+     * Long inputs on which {@link Regex#INTEGER_LIST} backtracks for seconds
+     * and {@link Regex#STRING} overflows the stack, which the automata match
+     * in linear time.
+     */
+    @Test
+    public void testAutomatonAdversarialInputs() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            Assertions.assertFalse(Regex.INTEGER_LIST_AUTOMATON.matches("[" + "1".repeat(100_000) + "a]"));
+            Assertions.assertTrue(Regex.STRING_AUTOMATON.matches("\"" + "a\\n".repeat(100_000) + "\""));
+        });
+    }
+
+    @Test
+    public void testRecordValidator() throws IOException {
+        String input = "thelegend27@gmail.com\nbad@@x.com\r\ncaf\u00e9@x.com\nother.domain@ufl.edu\n\n";
+        Path path = Files.createTempFile("records", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, input.getBytes(StandardCharsets.UTF_8));
+        for (RecordValidator validator : new RecordValidator[] {
+                new RecordValidator(Regex.EMAIL), new RecordValidator(Regex.EMAIL_AUTOMATON)}) {
+            RecordValidator.Result result = validator.validate(path);
+            Assertions.assertEquals(5, result.getRecords());
+            Assertions.assertEquals(2, result.getAccepted());
+            Assertions.assertArrayEquals(new long[] {22, 34, 67}, result.getRejectedOffsets());
+        }
+    }
+
+    /**
+     * Asserts that the input matches the given pattern, and that the pattern
+     * compiled into an {@link Automaton} agrees. This method doesn't do much
+     * now, but you will see this concept in future assignments.
      */
     private static void test(String input, Pattern pattern, boolean success) {
         Assertions.assertEquals(success, pattern.matcher(input).matches());
+        Assertions.assertEquals(success, Automaton.compile(pattern.pattern()).matches(input));
     }
 
 }
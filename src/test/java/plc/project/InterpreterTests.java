@@ -408,6 +408,57 @@ final class InterpreterTests {
         );
     }
 
+    @Test
+    void testLexicalAddressing() {
+        String input = "LET y: Integer = 2;\n" +
+                "DEF f(z: Integer): Integer DO RETURN y + z; END\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET y = 4;\n" +
+                "    LET i = 0;\n" +
+                "    WHILE i < 3 DO\n" +
+                "        IF i < 2 DO y = y + i; END\n" +
+                "        i = i + 1;\n" +
+                "    END\n" +
+                "    RETURN f(y);\n" +
+                "END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+
+        Ast.Expr.Binary sum = (Ast.Expr.Binary) ((Ast.Stmt.Return) ast.getMethods().get(0).getStatements().get(0)).getValue();
+        Ast.Expr.Access field = (Ast.Expr.Access) sum.getLeft();
+        Ast.Expr.Access parameter = (Ast.Expr.Access) sum.getRight();
+        Assertions.assertEquals(-1, field.getDepth()); // fields are looked up by name
+        Assertions.assertEquals(0, parameter.getDepth());
+        Assertions.assertEquals(0, parameter.getSlot());
+
+        List<Ast.Stmt> statements = ast.getMethods().get(1).getStatements();
+        Assertions.assertEquals(1, ((Ast.Stmt.Declaration) statements.get(1)).getSlot());
+        Ast.Stmt.If conditional = (Ast.Stmt.If) ((Ast.Stmt.While) statements.get(2)).getStatements().get(0);
+        Ast.Expr.Access receiver = (Ast.Expr.Access) ((Ast.Stmt.Assignment) conditional.getThenStatements().get(0)).getReceiver();
+        Assertions.assertEquals(2, receiver.getDepth());
+        Assertions.assertEquals(0, receiver.getSlot());
+
+        Assertions.assertEquals(BigInteger.valueOf(7), new Interpreter(new Scope(null)).visit(ast).getValue());
+
+        // A declaration in the root scope is defined by name, whatever the interpreter's scope holds.
+        Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration("z", Optional.of(new Ast.Expr.Literal(BigInteger.ONE)));
+        new Analyzer(new Scope(null)).visit(declaration);
+        Assertions.assertEquals(-1, declaration.getSlot());
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.getScope().defineVariable("w", Environment.NIL);
+        interpreter.visit(declaration);
+        Assertions.assertEquals(BigInteger.ONE, interpreter.getScope().lookupVariable("z").getValue().getValue());
+
+        Scope scope = new Scope(new Scope(null));
+        scope.defineVariable("x", Environment.create(BigInteger.ONE));
+        Assertions.assertEquals("x", scope.lookupVariable(0, 0).getName());
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> scope.lookupVariable(0, 1));
+        Assertions.assertEquals("The variable at depth 0, slot 1 is not defined in this scope.", exception.getMessage());
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupVariable(1, 0));
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupVariable(2, 0));
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupVariable(0, -1));
+    }
+
     private static Scope test(Ast ast, Object expected, Scope scope) {
         Interpreter interpreter = new Interpreter(scope);
         if (expected != null) {
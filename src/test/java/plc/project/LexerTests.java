@@ -6,8 +6,15 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -169,10 +176,118 @@ public class LexerTests {
                                 new Token(Token.Type.OPERATOR, "(", 94),
                                 new Token(Token.Type.OPERATOR, ")", 95),
                                 new Token(Token.Type.OPERATOR, ";", 96)
-                        ))
+                        )),
+                Arguments.of("Character Classes", "x_1-y<=-2.5!=+3.0.4 'a' '\\t' \"q\\\"r\"", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "x_1-y", 0),
+                        new Token(Token.Type.OPERATOR, "<=", 5),
+                        new Token(Token.Type.DECIMAL, "-2.5", 7),
+                        new Token(Token.Type.OPERATOR, "!=", 11),
+                        new Token(Token.Type.DECIMAL, "+3.0", 13),
+                        new Token(Token.Type.OPERATOR, ".", 17),
+                        new Token(Token.Type.INTEGER, "4", 18),
+                        new Token(Token.Type.CHARACTER, "'a'", 20),
+                        new Token(Token.Type.CHARACTER, "'\\t'", 24),
+                        new Token(Token.Type.STRING, "\"q\\\"r\"", 29)
+                ))
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testStreaming(String test, String input, List<Token> expected) {
+        List<Token> tokens = new ArrayList<>();
+        new Lexer(new StringReader(input)).tokens().forEachRemaining(tokens::add);
+        Assertions.assertEquals(expected, tokens);
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testBuffer(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer());
+    }
+
+    @Test
+    void testSymbols() {
+        Lexer lexer = new Lexer("LET x = x + y;");
+        List<Token> tokens = lexer.lex();
+        Assertions.assertEquals(SymbolTable.LET, tokens.get(0).getSymbol());
+        Assertions.assertEquals(tokens.get(1).getSymbol(), tokens.get(3).getSymbol());
+        Assertions.assertEquals(SymbolTable.PLUS, tokens.get(4).getSymbol());
+        Assertions.assertEquals("y", lexer.getSymbols().getName(tokens.get(5).getSymbol()));
+        Assertions.assertEquals(SymbolTable.NONE, new Lexer("\"LET\"").lex().get(0).getSymbol());
+    }
+
+    @Test
+    void testParallel() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append("LET x").append(i).append(" = \"line\\n\" + 'c' + -1.5;\n");
+            builder.append("LET y").append(i).append(" = '\n';\n");
+        }
+        String input = builder.toString();
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(input).lexParallel(new ForkJoinPool(4)));
+    }
+
+    @Test
+    void testRelex() {
+        String source = "LET x = 5;\nprint(x);";
+        Lexer lexer = new Lexer(source);
+        List<Token> tokens = Lexer.relex(lexer.lex(), lexer.getSymbols(), source, 5, 0, "y");
+        Assertions.assertEquals(new Lexer("LET xy = 5;\nprint(x);").lex(), tokens);
+        tokens = Lexer.relex(tokens, lexer.getSymbols(), "LET xy = 5;\nprint(x);", 9, 1, "1.25 <= \"a\"");
+        Assertions.assertEquals(new Lexer("LET xy = 1.25 <= \"a\";\nprint(x);").lex(), tokens);
+
+        // The re-lexed print has the same symbol as the shifted one after it.
+        tokens = Lexer.relex(tokens, lexer.getSymbols(), "LET xy = 1.25 <= \"a\";\nprint(x);", 9, 11, "print");
+        Assertions.assertEquals(new Lexer("LET xy = print;\nprint(x);").lex(), tokens);
+        Assertions.assertEquals(tokens.get(5).getSymbol(), tokens.get(3).getSymbol());
+        Assertions.assertEquals("print", lexer.getSymbols().getName(tokens.get(3).getSymbol()));
+
+        // The same edits applied in place to a token buffer over a StringBuilder.
+        StringBuilder builder = new StringBuilder(source);
+        lexer = new Lexer(builder);
+        TokenBuffer buffer = lexer.lexBuffer();
+        builder.insert(5, "y");
+        Lexer.relex(buffer, lexer.getSymbols(), 5, 0, 1);
+        Assertions.assertEquals(new Lexer("LET xy = 5;\nprint(x);").lex(), buffer);
+        builder.replace(9, 10, "1.25 <= \"a\"");
+        Lexer.relex(buffer, lexer.getSymbols(), 9, 1, 11);
+        Assertions.assertEquals(new Lexer("LET xy = 1.25 <= \"a\";\nprint(x);").lex(), buffer);
+        builder.replace(9, 20, "print");
+        Lexer.relex(buffer, lexer.getSymbols(), 9, 11, 5);
+        Assertions.assertEquals(new Lexer("LET xy = print;\nprint(x);").lex(), buffer);
+        Assertions.assertEquals(buffer.symbolAt(5), buffer.symbolAt(3));
+    }
+
+    @Test
+    void testLongWhitespace() {
+        StringBuilder builder = new StringBuilder("x");
+        for (int i = 0; i < 1 << 20; i++) {
+            builder.append(i % 4 == 0 ? '\n' : ' ');
+        }
+        builder.append("y");
+        Assertions.assertEquals(Arrays.asList(
+                new Token(Token.Type.IDENTIFIER, "x", 0),
+                new Token(Token.Type.IDENTIFIER, "y", (1 << 20) + 1)
+        ), new Lexer(builder.toString()).lex());
+
+        // A reader's buffer only retains the current token, not the run.
+        Lexer lexer = new Lexer(new StringReader(builder.toString()));
+        List<Token> tokens = new ArrayList<>();
+        lexer.tokens().forEachRemaining(tokens::add);
+        Assertions.assertEquals(new Lexer(builder.toString()).lex(), tokens);
+        Assertions.assertEquals(8192, lexer.getBufferSize());
+    }
+
+    @Test
+    void testMappedFile() throws IOException {
+        String input = "LET x = 5;\nprint(\"Hello, World!\");";
+        Path path = Files.createTempFile("lexer", ".plc");
+        path.toFile().deleteOnExit();
+        Files.write(path, input.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(new Lexer(input).lex(), new Lexer(path).lex());
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
@@ -181,6 +296,28 @@ public class LexerTests {
         Assertions.assertEquals(3, exception.getIndex());
     }
 
+    @Test
+    void testExceptionLocation() {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Lexer("LET x = 1;\n\n  print(\"oops);").lex());
+        Assertions.assertEquals(27, exception.getIndex());
+        Assertions.assertEquals(3, exception.getLine());
+        Assertions.assertEquals(16, exception.getColumn());
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            builder.append("x = ").append(i).append(";\n");
+        }
+        String input = builder.append("  print(\"oops);").toString();
+        Lexer lexer = new Lexer(new StringReader(input));
+        exception = Assertions.assertThrows(ParseException.class, lexer::lex);
+        Assertions.assertEquals(input.length(), exception.getIndex());
+        Assertions.assertEquals(100001, exception.getLine());
+        Assertions.assertEquals(16, exception.getColumn());
+        Assertions.assertEquals(100001, lexer.getLineIndex().getLineCount());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> lexer.getLineIndex().getLine(0));
+    }
+
     /**
      * Tests that lexing the input through {@link Lexer#lexToken()} produces a
      * single token with the expected type and literal matching the input.
@@ -2,15 +2,23 @@ package plc.project;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -303,10 +311,28 @@ final class ParserTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expr.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escaped Backslash",
+                        Arrays.asList(new Token(Token.Type.STRING, "\"C:\\\\new\\t\"", 0)),
+                        new Ast.Expr.Literal("C:\\new\t")
+                ),
+                Arguments.of("Escape Character Literal",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\''", 0)),
+                        new Ast.Expr.Literal('\'')
                 )
         );
     }
 
+    @Test
+    void testLiteralPool() {
+        Parser parser = new Parser(new Lexer("f(1, 1, \"a\", \"a\", 1.5)").lex());
+        Ast.Expr.Function function = (Ast.Expr.Function) parser.parseExpression();
+        List<Ast.Expr> arguments = function.getArguments();
+        Assertions.assertSame(((Ast.Expr.Literal) arguments.get(0)).getLiteral(), ((Ast.Expr.Literal) arguments.get(1)).getLiteral());
+        Assertions.assertSame(((Ast.Expr.Literal) arguments.get(2)).getLiteral(), ((Ast.Expr.Literal) arguments.get(3)).getLiteral());
+        Assertions.assertEquals(3, parser.getLiteralPool().size());
+    }
+
     @ParameterizedTest
     @MethodSource
     void testGroupExpression(String test, List<Token> tokens, Ast.Expr.Group expected) {
@@ -396,6 +422,50 @@ final class ParserTests {
                                 new Ast.Expr.Access(Optional.empty(), "expr1"),
                                 new Ast.Expr.Access(Optional.empty(), "expr2")
                         )
+                ),
+                Arguments.of("Left Associativity",
+                        Arrays.asList(
+                                //a - b + c
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.OPERATOR, "-", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 4),
+                                new Token(Token.Type.OPERATOR, "+", 6),
+                                new Token(Token.Type.IDENTIFIER, "c", 8)
+                        ),
+                        new Ast.Expr.Binary("+",
+                                new Ast.Expr.Binary("-",
+                                        new Ast.Expr.Access(Optional.empty(), "a"),
+                                        new Ast.Expr.Access(Optional.empty(), "b")
+                                ),
+                                new Ast.Expr.Access(Optional.empty(), "c")
+                        )
+                ),
+                Arguments.of("Mixed Precedence",
+                        Arrays.asList(
+                                //a OR b < c + d * e
+                                new Token(Token.Type.IDENTIFIER, "a", 0),
+                                new Token(Token.Type.IDENTIFIER, "OR", 2),
+                                new Token(Token.Type.IDENTIFIER, "b", 5),
+                                new Token(Token.Type.OPERATOR, "<", 7),
+                                new Token(Token.Type.IDENTIFIER, "c", 9),
+                                new Token(Token.Type.OPERATOR, "+", 11),
+                                new Token(Token.Type.IDENTIFIER, "d", 13),
+                                new Token(Token.Type.OPERATOR, "*", 15),
+                                new Token(Token.Type.IDENTIFIER, "e", 17)
+                        ),
+                        new Ast.Expr.Binary("OR",
+                                new Ast.Expr.Access(Optional.empty(), "a"),
+                                new Ast.Expr.Binary("<",
+                                        new Ast.Expr.Access(Optional.empty(), "b"),
+                                        new Ast.Expr.Binary("+",
+                                                new Ast.Expr.Access(Optional.empty(), "c"),
+                                                new Ast.Expr.Binary("*",
+                                                        new Ast.Expr.Access(Optional.empty(), "d"),
+                                                        new Ast.Expr.Access(Optional.empty(), "e")
+                                                )
+                                        )
+                                )
+                        )
                 )
         );
     }
@@ -552,6 +622,322 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testStreamingSource() {
+        String input = "LET first: Integer = 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    WHILE first != 10 DO\n" +
+                "        print(first);\n" +
+                "        first = first + 1;\n" +
+                "    END\n" +
+                "END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(new StringReader(input)).tokens()).parseSource());
+    }
+
+    @Test
+    void testParallelSource() {
+        StringBuilder builder = new StringBuilder("LET count: Integer = 0;\n");
+        for (int i = 0; i < 2000; i++) {
+            builder.append("DEF method").append(i).append("(x: Integer): Integer DO\n")
+                    .append("    IF x > ").append(i).append(" DO RETURN x; END\n")
+                    .append("    WHILE x < 10 DO x = x + 1; END\n")
+                    .append("    RETURN x * 2;\n")
+                    .append("END\n");
+        }
+        List<Token> tokens = new Lexer(builder.toString()).lex();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Assertions.assertEquals(new Parser(tokens).parseSource(), new Parser(tokens).parseSourceParallel(pool));
+
+        TokenBuffer buffer = new Lexer(builder.toString()).lexBuffer();
+        Assertions.assertEquals(new Parser(tokens).parseSource(), new Parser(buffer).parseSource());
+        Assertions.assertEquals(new Parser(tokens).parseSource(), new Parser(buffer).parseSourceParallel(pool));
+
+        List<Token> invalid = new Lexer(builder.append("DEF broken() DO x = ; END").toString()).lex();
+        ParseException expected = Assertions.assertThrows(ParseException.class, () -> new Parser(invalid).parseSource());
+        ParseException actual = Assertions.assertThrows(ParseException.class, () -> new Parser(invalid).parseSourceParallel(pool));
+        Assertions.assertEquals(expected.getIndex(), actual.getIndex());
+        pool.shutdown();
+    }
+
+    @Test
+    void testReparse() {
+        String input = "LET x: Integer = 1;\n" +
+                "DEF first() DO print(1); END\n" +
+                "DEF second() DO print(2); END\n" +
+                "DEF third() DO print(3); END";
+        List<Token> tokens = new Lexer(input).lex();
+        Ast.Source previous = new Parser(tokens).parseSource();
+
+        List<Token> edited = new Lexer(input.replace("print(2)", "print(2 + 2)")).lex();
+        int start = tokens.indexOf(new Token(Token.Type.INTEGER, "2", input.indexOf("2)")));
+        Ast.Source source = Parser.reparse(previous, tokens, edited, start, 1, 3);
+
+        Assertions.assertEquals(new Parser(edited).parseSource(), source);
+        Assertions.assertSame(previous.getFields().get(0), source.getFields().get(0));
+        Assertions.assertSame(previous.getMethods().get(0), source.getMethods().get(0));
+        Assertions.assertNotSame(previous.getMethods().get(1), source.getMethods().get(1));
+        Assertions.assertSame(previous.getMethods().get(2), source.getMethods().get(2));
+
+        // The tokens parsed again share the parser's literal pool and factory.
+        LiteralPool literals = new LiteralPool();
+        AstFactory factory = new AstFactory();
+        Parser parser = new Parser(edited);
+        parser.setLiteralPool(literals);
+        parser.setAstFactory(factory);
+        parser.setSpans(false);
+        source = parser.reparse(new Parser(tokens).parseSource(), tokens, start, 1, 3);
+        Assertions.assertEquals(new Parser(edited).parseSource(), source);
+        Ast.Expr.Function print = (Ast.Expr.Function) ((Ast.Stmt.Expression) source.getMethods().get(1).getStatements().get(0)).getExpression();
+        Ast.Expr.Binary binary = (Ast.Expr.Binary) print.getArguments().get(0);
+        Assertions.assertTrue(factory.isShared(binary));
+        Assertions.assertSame(literals.getInteger("2"), ((Ast.Expr.Literal) binary.getLeft()).getLiteral());
+    }
+
+    @Test
+    void testRecovery() {
+        String input = "LET x: Integer = ;\n" +
+                "DEF first() DO\n" +
+                "    print(1)\n" +
+                "    print(2);\n" +
+                "    LET y = 3;\n" +
+                "END\n" +
+                "DEF second( DO END\n" +
+                "DEF third() DO\n" +
+                "    y = (1 + ;\n" +
+                "    print(3);\n" +
+                "END";
+        List<Token> tokens = new Lexer(input).lex();
+        ParseException expected = Assertions.assertThrows(ParseException.class, () -> new Parser(tokens).parseSource());
+
+        Parser parser = new Parser(tokens);
+        parser.setRecovering(true);
+        Ast.Source source = parser.parseSource();
+        List<ParseException> diagnostics = parser.getDiagnostics();
+        Assertions.assertEquals(4, diagnostics.size());
+        Assertions.assertEquals(expected.getIndex(), diagnostics.get(0).getIndex());
+        Assertions.assertEquals(expected.getMessage(), diagnostics.get(0).getMessage());
+
+        Assertions.assertTrue(source.getFields().isEmpty());
+        Assertions.assertEquals(2, source.getMethods().size());
+        List<Ast.Stmt> first = source.getMethods().get(0).getStatements();
+        Assertions.assertEquals(2, first.size());
+        Assertions.assertTrue(first.get(0) instanceof Ast.Stmt.Error);
+        Ast.Stmt.Error error = (Ast.Stmt.Error) first.get(0);
+        Assertions.assertEquals(new Ast.Stmt.Error(error.getMessage(), error.getIndex()).hashCode(), error.hashCode());
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> error.accept(new Interpreter(new Scope(null))));
+        Assertions.assertEquals("The statement at " + error.getStart() + "-" + error.getEnd() + " failed to parse: " + error.getMessage(), exception.getMessage());
+        Assertions.assertTrue(first.get(1) instanceof Ast.Stmt.Declaration);
+        List<Ast.Stmt> third = source.getMethods().get(1).getStatements();
+        Assertions.assertTrue(third.get(0) instanceof Ast.Stmt.Error);
+        Assertions.assertEquals(
+                new Ast.Stmt.Expression(new Ast.Expr.Function(Optional.empty(), "print", Arrays.asList(new Ast.Expr.Literal(BigInteger.valueOf(3))))),
+                third.get(1)
+        );
+
+        // A method missing its END (with or without an open block) ends at the next DEF.
+        for (String unterminated : Arrays.asList("DEF a() DO x; ", "DEF a() DO x; WHILE x DO ")) {
+            String partial = unterminated + "DEF b() DO y; END";
+            parser = new Parser(new Lexer(partial).lex());
+            parser.setRecovering(true);
+            source = parser.parseSource();
+            Assertions.assertEquals(Arrays.asList("a", "b"), Arrays.asList(source.getMethods().get(0).getName(), source.getMethods().get(1).getName()));
+            Assertions.assertEquals(1, source.getMethods().get(1).getStatements().size());
+            Assertions.assertEquals(unterminated.contains("WHILE") ? 2 : 1, parser.getDiagnostics().size());
+            for (ParseException diagnostic : parser.getDiagnostics()) {
+                Assertions.assertEquals("Expected END keyword.", diagnostic.getMessage());
+                Assertions.assertEquals(partial.indexOf("DEF b"), diagnostic.getIndex());
+            }
+        }
+    }
+
+    @Test
+    void testCompactAst() {
+        String input = "LET x: Integer = 1;\n" +
+                "LET y: Decimal;\n" +
+                "DEF main(a: Integer, b: String): Integer DO\n" +
+                "    LET z = a + 2 * (x - 1);\n" +
+                "    IF a > 1 DO print(\"a\\n\", 'c'); ELSE a.b = NIL; END\n" +
+                "    FOR i IN list DO print(i); END\n" +
+                "    WHILE TRUE DO RETURN obj.method(); END\n" +
+                "END";
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        CompactAst compact = CompactAst.of(source);
+        Assertions.assertEquals(source, compact.toAst());
+
+        int root = compact.getRoot();
+        Assertions.assertEquals(CompactAst.Kind.SOURCE, compact.getKind(root));
+        Assertions.assertEquals(2, compact.getFieldCount(root));
+        Assertions.assertEquals(-1, compact.getValue(compact.getField(root, 1)));
+        int method = compact.getMethod(root, 0);
+        Assertions.assertEquals("main", compact.getName(method));
+        Assertions.assertEquals("Integer", compact.getTypeName(method));
+        Assertions.assertEquals("String", compact.getParameterTypeName(method, 1));
+        Assertions.assertEquals(4, compact.getStatementCount(method));
+        Assertions.assertEquals(source.getMethods().get(0).getStatements().get(1), compact.toAst(compact.getStatement(method, 1)));
+    }
+
+    @Test
+    void testAstCache(@TempDir Path directory) throws IOException {
+        String input = "LET x: Decimal = 1.50;\n" +
+                "DEF main(): Integer DO\n" +
+                "    print(\"a\\tb\", 'c', NIL, TRUE, 123456789012345678901234567890);\n" +
+                "    RETURN x.y(-1);\n" +
+                "END";
+        AstCache cache = new AstCache(directory);
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, cache.load(input));
+        Assertions.assertTrue(Files.exists(cache.getPath(input)));
+        Assertions.assertEquals(expected, cache.load(input));
+
+        Files.write(cache.getPath(input), new byte[] {0x50, 0x4C, 0x43, 0x41, 0, 0, 0, 0});
+        Assertions.assertThrows(AstCache.CacheException.class, () -> AstCache.read(Files.newInputStream(cache.getPath(input))));
+        Assertions.assertEquals(expected, cache.load(input));
+
+        // A corrupted count is rejected rather than allocated.
+        Files.write(cache.getPath(input), new byte[] {0x50, 0x4C, 0x43, 0x41, 0, 0, 0, AstCache.VERSION, 0, 0x7F, -1, -1, -1});
+        Assertions.assertThrows(AstCache.CacheException.class, () -> AstCache.read(Files.newInputStream(cache.getPath(input))));
+        Assertions.assertEquals(expected, cache.load(input));
+    }
+
+    @Test
+    void testDeepNesting() throws IOException {
+        int levels = 100000;
+        StringBuilder builder = new StringBuilder("DEF main() DO\n");
+        for (int i = 0; i < levels; i++) {
+            builder.append(i % 3 == 0 ? "IF x DO " : i % 3 == 1 ? "WHILE x DO " : "FOR i IN x DO ");
+        }
+        builder.append("print(");
+        for (int i = 0; i < levels; i++) {
+            builder.append("(f(a.b(");
+        }
+        builder.append("1");
+        for (int i = 0; i < levels; i++) {
+            builder.append(")))");
+        }
+        builder.append(");");
+        for (int i = 0; i < levels; i++) {
+            builder.append(" END");
+        }
+        String input = builder.append("\nEND").toString();
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        assertDeepNesting(source, levels);
+        assertDeepNesting(CompactAst.of(source).toAst(), levels);
+        ByteArrayOutputStream cached = new ByteArrayOutputStream();
+        AstCache.write(source, cached, false);
+        assertDeepNesting(AstCache.read(new ByteArrayInputStream(cached.toByteArray())), levels);
+
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer(input.substring(0, input.length() - 4)).lex()).parseSource());
+        Assertions.assertEquals("Expected END keyword.", exception.getMessage());
+    }
+
+    @Test
+    void testAstFactory() {
+        String input = "DEF main() DO\n" +
+                "    print(\"a\" + (1 + 2));\n" +
+                "    print(\"a\" + (1 + 2));\n" +
+                "    print(x + 1);\n" +
+                "    print(x + 1);\n" +
+                "END";
+        List<Token> tokens = new Lexer(input).lex();
+        AstFactory factory = new AstFactory();
+        Parser parser = new Parser(tokens);
+        parser.setAstFactory(factory);
+        parser.setSpans(false);
+        Ast.Source source = parser.parseSource();
+        Assertions.assertEquals(new Parser(tokens).parseSource(), source);
+
+        List<Ast.Stmt> statements = source.getMethods().get(0).getStatements();
+        Ast.Expr[] arguments = new Ast.Expr[statements.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statements.get(i)).getExpression()).getArguments().get(0);
+        }
+        Assertions.assertSame(arguments[0], arguments[1]);
+        Assertions.assertTrue(factory.isShared(arguments[0]));
+        Assertions.assertNotSame(arguments[2], arguments[3]);
+        Assertions.assertFalse(factory.isShared(arguments[2]));
+        Assertions.assertEquals(arguments[2].hashCode(), arguments[3].hashCode());
+        Assertions.assertEquals(6, factory.size()); // "a", 1, 2, 1 + 2, (1 + 2) and "a" + (1 + 2)
+        Assertions.assertEquals(-1, arguments[0].getStart());
+
+        // Each occurrence has its own span, so expressions are not shared while spans are recorded.
+        parser = new Parser(tokens);
+        parser.setAstFactory(new AstFactory());
+        statements = parser.parseSource().getMethods().get(0).getStatements();
+        Ast.Expr first = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statements.get(0)).getExpression()).getArguments().get(0);
+        Ast.Expr second = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statements.get(1)).getExpression()).getArguments().get(0);
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(input.indexOf("\"a\" + (1 + 2)"), first.getStart());
+        Assertions.assertEquals(input.lastIndexOf("\"a\" + (1 + 2)"), second.getStart());
+        Assertions.assertEquals(0, parser.getAstFactory().size());
+    }
+
+    @Test
+    void testSpans() {
+        String input = "DEF main() DO\n" +
+                "    print(x.f(1) * (2 + y));\n" +
+                "END\n" +
+                "DEF g() DO\n" +
+                "    RETURN 1;\n" +
+                "END";
+        List<Token> tokens = new Lexer(input).lex();
+        Ast.Source source = new Parser(tokens).parseSource();
+        Ast.Method main = source.getMethods().get(0);
+        Ast.Stmt.Expression statement = (Ast.Stmt.Expression) main.getStatements().get(0);
+        Ast.Expr.Function print = (Ast.Expr.Function) statement.getExpression();
+        Ast.Expr.Binary binary = (Ast.Expr.Binary) print.getArguments().get(0);
+        Ast.Expr.Function function = (Ast.Expr.Function) binary.getLeft();
+        assertSpan(input, "DEF main() DO\n    print(x.f(1) * (2 + y));\nEND", main);
+        assertSpan(input, "print(x.f(1) * (2 + y));", statement);
+        assertSpan(input, "x.f(1) * (2 + y)", binary);
+        assertSpan(input, "x.f(1)", function);
+        assertSpan(input, "x", function.getReceiver().get());
+        assertSpan(input, "(2 + y)", binary.getRight());
+        Assertions.assertEquals(0, source.getStart());
+        Assertions.assertEquals(input.length(), source.getEnd());
+
+        // Replaces 1 with 100, which moves the reused method g.
+        String edited = input.replace("f(1)", "f(100)");
+        List<Token> editedTokens = new Lexer(edited).lex();
+        int index = tokens.indexOf(new Token(Token.Type.INTEGER, "1", 28));
+        Ast.Source reparsed = Parser.reparse(source, tokens, editedTokens, index, 1, 1);
+        Assertions.assertSame(source.getMethods().get(1), reparsed.getMethods().get(1));
+        assertSpan(edited, "DEF g() DO\n    RETURN 1;\nEND", reparsed.getMethods().get(1));
+        assertSpan(edited, "RETURN 1;", reparsed.getMethods().get(1).getStatements().get(0));
+        Assertions.assertEquals(edited.length(), reparsed.getEnd());
+        // The reused method was moved, not copied, so the previous tree sees the new spans.
+        Assertions.assertEquals(edited.indexOf("DEF g()"), source.getMethods().get(1).getStart());
+    }
+
+    /**
+     * Checks the tree parsed by {@link #testDeepNesting()}, walking it
+     * iteratively since equals and toString recurse.
+     */
+    private static void assertDeepNesting(Ast.Source source, int levels) {
+        Ast.Stmt statement = source.getMethods().get(0).getStatements().get(0);
+        for (int i = 0; i < levels; i++) {
+            List<Ast.Stmt> statements = statement instanceof Ast.Stmt.If ? ((Ast.Stmt.If) statement).getThenStatements()
+                    : statement instanceof Ast.Stmt.While ? ((Ast.Stmt.While) statement).getStatements()
+                    : ((Ast.Stmt.For) statement).getStatements();
+            Assertions.assertEquals(1, statements.size());
+            statement = statements.get(0);
+        }
+        Ast.Expr expr = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statement).getExpression()).getArguments().get(0);
+        for (int i = 0; i < levels; i++) {
+            Ast.Expr.Function function = (Ast.Expr.Function) ((Ast.Expr.Group) expr).getExpression();
+            Ast.Expr.Function method = (Ast.Expr.Function) function.getArguments().get(0);
+            Assertions.assertEquals(Optional.of(new Ast.Expr.Access(Optional.empty(), "a")), method.getReceiver());
+            expr = method.getArguments().get(0);
+        }
+        Assertions.assertEquals(new Ast.Expr.Literal(BigInteger.ONE), expr);
+    }
+
+    private static void assertSpan(String input, String expected, Ast ast) {
+        Assertions.assertEquals(expected, input.substring(ast.getStart(), ast.getEnd()));
+        Assertions.assertEquals(input.indexOf(expected), ast.getStart());
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).